@@ -0,0 +1,43 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.metrics.MeterHandles;
+import com.atkach.ecoflow.metrics.SeriesStore;
+import com.atkach.ecoflow.mqtt.MessageDiagnostics;
+import com.atkach.ecoflow.mqtt.MetricNameResolver;
+import com.atkach.ecoflow.mqtt.QuotaProcessor;
+import com.atkach.ecoflow.mqtt.handlers.HandlerDispatcher;
+import com.atkach.ecoflow.mqtt.handlers.MetricsHandler;
+import com.atkach.ecoflow.mqtt.handlers.MultiValueArrayHandler;
+import com.atkach.ecoflow.mqtt.handlers.SingleValueArrayHandler;
+import com.atkach.ecoflow.mqtt.handlers.SingleValueHandler;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.List;
+
+/**
+ * The exporter's components wired by hand, the way Spring wires them.
+ */
+final class Fixtures {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final EcoflowProperties properties = new EcoflowProperties();
+    final SeriesStore seriesStore = new SeriesStore();
+    final MeterHandles meterHandles;
+    final MetricNameResolver nameResolver;
+    final List<MetricsHandler> handlers;
+    final HandlerDispatcher handlerDispatcher;
+    final QuotaProcessor quotaProcessor;
+
+    Fixtures() {
+        properties.getSeries().setMaxSeries(0);
+        properties.getSeries().setMaxSeriesPerDevice(0);
+        meterHandles = new MeterHandles(meterRegistry, seriesStore, properties);
+        nameResolver = new MetricNameResolver(meterRegistry, properties);
+        handlers = List.of(new SingleValueHandler(), new SingleValueArrayHandler(),
+                new MultiValueArrayHandler(nameResolver));
+        handlerDispatcher = new HandlerDispatcher(handlers, properties);
+        quotaProcessor = new QuotaProcessor(handlerDispatcher, nameResolver, meterHandles,
+                new MessageDiagnostics(properties, meterRegistry));
+    }
+}
@@ -0,0 +1,72 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.dto.MessagePayload;
+import com.atkach.ecoflow.mqtt.MetricValue;
+import com.atkach.ecoflow.mqtt.handlers.HandlerDispatcher;
+import com.atkach.ecoflow.mqtt.handlers.MetricsHandler;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linear {@link MetricsHandler} scan against the {@link HandlerDispatcher} table on already materialized
+ * parameter values, the path of values the streaming decoder hands over as complex values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerDispatchBenchmark {
+    @Param({Payloads.DELTA2, Payloads.DELTA_PRO_MULTI_BATTERY})
+    public String payload;
+
+    private Map<String, Object> params;
+    private List<MetricsHandler> handlers;
+    private HandlerDispatcher handlerDispatcher;
+    private Device device;
+
+    @Setup
+    public void setup() throws IOException {
+        var objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        var message = objectMapper.readValue(Payloads.load(payload), MessagePayload.class);
+        params = message.getParams() != null ? message.getParams() : message.getParam();
+        var fixtures = new Fixtures();
+        handlers = fixtures.handlers;
+        handlerDispatcher = fixtures.handlerDispatcher;
+        device = new Device("bench", "BENCH0");
+    }
+
+    @Benchmark
+    public void linearDispatch(Blackhole bh) {
+        for (var entry : params.entrySet()) {
+            for (MetricsHandler handler : handlers) {
+                if (handler.canHandle(device, entry.getKey(), entry.getValue())) {
+                    for (MetricValue metric : handler.getMetrics(device, entry.getKey(), entry.getValue())) {
+                        bh.consume(metric.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void indexedDispatch(Blackhole bh) {
+        for (var entry : params.entrySet()) {
+            var metrics = handlerDispatcher.getMetrics(device, entry.getKey(), entry.getValue());
+            if (metrics != null) {
+                for (MetricValue metric : metrics) {
+                    bh.consume(metric.getValue());
+                }
+            }
+        }
+    }
+}
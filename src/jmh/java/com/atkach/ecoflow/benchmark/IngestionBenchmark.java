@@ -0,0 +1,72 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Whole processing of a quota message: decode, name resolution, handler chain and series updates.
+ * <p>
+ * The contended variant has every thread update the series of one device, as when a single device floods
+ * one pipeline worker's share of topics; the per-thread variant gives every thread its own device.
+ * {@code stageTimers} shows the cost of the per-stage ingestion timers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestionBenchmark {
+    @Param({Payloads.DELTA2, Payloads.RIVER2, Payloads.DELTA_PRO_MULTI_BATTERY, Payloads.POWERSTREAM,
+            Payloads.SMART_PLUG})
+    public String payload;
+
+    @Param({"true", "false"})
+    public boolean stageTimers;
+
+    private final AtomicInteger devices = new AtomicInteger();
+    private Fixtures fixtures;
+    private byte[] bytes;
+    private Device sharedDevice;
+
+    @State(Scope.Thread)
+    public static class ThreadDevice {
+        private Device device;
+
+        @Setup
+        public void setup(IngestionBenchmark benchmark) {
+            int n = benchmark.devices.incrementAndGet();
+            device = new Device("bench-" + n, "BENCH" + n);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        fixtures = new Fixtures();
+        fixtures.properties.getIngestion().setStageTimers(stageTimers);
+        bytes = Payloads.load(payload);
+        sharedDevice = new Device("bench", "BENCH0");
+        fixtures.quotaProcessor.process(sharedDevice, bytes);
+    }
+
+    @Benchmark
+    public boolean process() throws IOException {
+        return fixtures.quotaProcessor.process(sharedDevice, bytes);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean processContended() throws IOException {
+        return fixtures.quotaProcessor.process(sharedDevice, bytes);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean processDevicePerThread(ThreadDevice threadDevice) throws IOException {
+        return fixtures.quotaProcessor.process(threadDevice.device, bytes);
+    }
+}
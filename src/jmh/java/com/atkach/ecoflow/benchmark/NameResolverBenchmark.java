@@ -0,0 +1,58 @@
+package com.atkach.ecoflow.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.util.ParsingUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name normalization on every parameter against the cached lookups of {@code MetricNameResolver}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameResolverBenchmark {
+    private static final String TYPE_CODE = "invStatus";
+    private static final String[] KEYS = {"acInVol", "acInAmp", "outputWatts", "inputWatts", "invOutVol",
+            "invOutAmp", "invOutFreq", "acDipSwitch", "fanState", "outTemp", "cfgAcEnabled", "sysVer"};
+
+    private Fixtures fixtures;
+
+    @Setup
+    public void setup() {
+        fixtures = new Fixtures();
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String key : KEYS) {
+            bh.consume(ParsingUtils.reconcatenateCamelCase(String.format("%s_%s", TYPE_CODE, key), "_"));
+        }
+    }
+
+    @Benchmark
+    public void resolve(Blackhole bh) {
+        for (String key : KEYS) {
+            bh.consume(fixtures.nameResolver.resolve(TYPE_CODE, key));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void resolveContended(Blackhole bh) {
+        for (String key : KEYS) {
+            bh.consume(fixtures.nameResolver.resolve(TYPE_CODE, key));
+        }
+    }
+
+    @Benchmark
+    public void resolveElement(Blackhole bh) {
+        for (String key : KEYS) {
+            bh.consume(fixtures.nameResolver.resolveElement("bms_info_bms_slave", key));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.atkach.ecoflow.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Representative quota messages kept in {@code src/jmh/resources/payloads}.
+ */
+public final class Payloads {
+    public static final String DELTA2 = "delta2_inv_status";
+    public static final String RIVER2 = "river2_pd_status";
+    public static final String DELTA_PRO_MULTI_BATTERY = "delta_pro_multi_battery";
+    public static final String POWERSTREAM = "powerstream_heartbeat";
+    public static final String SMART_PLUG = "smartplug_heartbeat";
+
+    private Payloads() {
+    }
+
+    public static byte[] load(String name) {
+        try (InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name + ".json")) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown payload fixture " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.mqtt.pipeline.IngestionPipeline;
+import com.atkach.ecoflow.mqtt.pipeline.OverflowPolicy;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.atkach.ecoflow.utils.ThreadFactories;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages of many devices through the {@link IngestionPipeline} into the series store, with platform or virtual
+ * worker threads. An operation is one message of every device, processed.
+ * <p>
+ * Only {@code platform} runs by default, {@code virtual} needs a Java 21 JVM and is added by
+ * {@code ./gradlew jmh -PjavaVersion=21}. The footprint counters report the live platform threads and the used heap
+ * at the end of every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    private static final int DEVICES = 500;
+
+    @Param({"platform"})
+    public String threads;
+
+    @Param({"2", "500"})
+    public int workers;
+
+    private Fixtures fixtures;
+    private IngestionPipeline pipeline;
+    private String[] topics;
+    private Device[] devices;
+    private byte[] payload;
+    private final AtomicLong processed = new AtomicLong();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long platformThreads;
+        public long heapUsedMb;
+
+        @TearDown(Level.Iteration)
+        public void sample() {
+            platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+            heapUsedMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        fixtures = new Fixtures();
+        payload = Payloads.load(Payloads.DELTA2);
+        topics = new String[DEVICES];
+        devices = new Device[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            topics[i] = "/open/bench/BENCH" + i + "/quota";
+            devices[i] = new Device("bench-" + i, "BENCH" + i);
+        }
+
+        var config = new EcoflowProperties.Pipeline();
+        config.setWorkers(workers);
+        config.setOverflowPolicy(OverflowPolicy.BLOCK);
+        pipeline = new IngestionPipeline(config, fixtures.meterRegistry,
+                ThreadFactories.create("bench-pipeline-", threads.equals("virtual")), message -> {
+                    int device = Integer.parseInt(message.getTopic(), 17, message.getTopic().length() - 6, 10);
+                    try {
+                        fixtures.quotaProcessor.process(devices[device], message.getPayload());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    processed.incrementAndGet();
+                });
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pipeline.close();
+    }
+
+    @Benchmark
+    public long messagePerDevice(Footprint footprint) throws InterruptedException {
+        long target = processed.get() + DEVICES;
+        for (String topic : topics) {
+            pipeline.submit(topic, payload);
+        }
+        while (processed.get() < target) {
+            Thread.onSpinWait();
+        }
+        return target;
+    }
+}
@@ -0,0 +1,122 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.dto.MessagePayload;
+import com.atkach.ecoflow.mqtt.MetricNameResolver;
+import com.atkach.ecoflow.mqtt.MetricValue;
+import com.atkach.ecoflow.mqtt.decoder.QuotaMessageDecoder;
+import com.atkach.ecoflow.mqtt.decoder.QuotaSink;
+import com.atkach.ecoflow.mqtt.handlers.MetricsHandler;
+import com.atkach.ecoflow.mqtt.handlers.MultiValueArrayHandler;
+import com.atkach.ecoflow.mqtt.handlers.SingleValueArrayHandler;
+import com.atkach.ecoflow.mqtt.handlers.SingleValueHandler;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.util.ParsingUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Old {@code String} + {@code Map} decoding against {@link QuotaMessageDecoder}, both including name
+ * normalization. Run with the gc profiler (configured in build.gradle) to compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuotaDecoderBenchmark {
+    @Param({Payloads.DELTA2, Payloads.RIVER2, Payloads.DELTA_PRO_MULTI_BATTERY, Payloads.POWERSTREAM,
+            Payloads.SMART_PLUG})
+    public String payload;
+
+    private byte[] bytes;
+    private ObjectMapper objectMapper;
+    private QuotaMessageDecoder decoder;
+    private List<MetricsHandler> handlers;
+    private Device device;
+
+    @Setup
+    public void setup() {
+        bytes = Payloads.load(payload);
+        // fixtures carry fields MessagePayload does not declare, e.g. timestamp
+        objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        decoder = new QuotaMessageDecoder(objectMapper);
+        handlers = List.of(new SingleValueHandler(), new SingleValueArrayHandler(), new MultiValueArrayHandler(
+                new MetricNameResolver(new SimpleMeterRegistry(), new EcoflowProperties())));
+        device = new Device("bench", "BENCH0000000001");
+    }
+
+    @Benchmark
+    public void mapDecode(Blackhole bh) throws IOException {
+        var payload = objectMapper.readValue(new String(bytes), MessagePayload.class);
+        Map<String, Object> params = payload.getParams() != null ? payload.getParams() : payload.getParam();
+
+        params.forEach((p, v) -> {
+            var name = resolveName(payload.getTypeCode(), p);
+            if (name == null) {
+                return;
+            }
+            for (MetricsHandler handler : handlers) {
+                if (handler.canHandle(device, name, v)) {
+                    for (MetricValue metric : handler.getMetrics(device, name, v)) {
+                        bh.consume(metric.getValue());
+                    }
+                }
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean streamingDecode(Blackhole bh) throws IOException {
+        return decoder.decode(bytes, new BlackholeSink(bh));
+    }
+
+    private static String resolveName(String typeCode, String key) {
+        var fullName = StringUtils.isNotBlank(typeCode) ? typeCode + "_" + key : key;
+        var name = ParsingUtils.reconcatenateCamelCase(fullName, "_");
+        return name.endsWith("_bytes") || name.endsWith("_ver") || name.endsWith("_sn") ? null : name;
+    }
+
+    private record BlackholeSink(Blackhole bh) implements QuotaSink {
+        @Override
+        public String resolveName(String typeCode, String key) {
+            return QuotaDecoderBenchmark.resolveName(typeCode, key);
+        }
+
+        @Override
+        public String resolveElementName(String name, String key) {
+            var elementKey = ParsingUtils.reconcatenateCamelCase(key.replace(".", "_"), "_");
+            return elementKey.equals("sn") ? null : name + "_" + elementKey;
+        }
+
+        @Override
+        public void onValue(String name, double value) {
+            bh.consume(value);
+        }
+
+        @Override
+        public void onIndexedValue(String name, int index, double value) {
+            bh.consume(value);
+        }
+
+        @Override
+        public void onSerialValue(String name, String serial, double value) {
+            bh.consume(value);
+        }
+
+        @Override
+        public void onComplexValue(String name, Object value) {
+            bh.consume(value);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.MeterHandles;
+import com.atkach.ecoflow.metrics.PrometheusTextWriter;
+import com.atkach.ecoflow.metrics.SeriesHandle;
+import com.atkach.ecoflow.metrics.SeriesStore;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PrometheusTextWriter} against {@code /actuator/prometheus} rendering of the same series as Micrometer
+ * gauges, the way they were exposed before {@code /metrics}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScrapeBenchmark {
+    private static final int METRICS_PER_DEVICE = 100;
+
+    @Param({"1000", "50000"})
+    public int seriesCount;
+
+    private PrometheusMeterRegistry registry;
+    private PrometheusTextWriter writer;
+
+    @Setup
+    public void setup() {
+        var properties = new EcoflowProperties();
+        properties.getSeries().setMaxSeries(0);
+        properties.getSeries().setMaxSeriesPerDevice(0);
+        properties.getScrape().setActuatorSeries(false);
+
+        registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        var store = new SeriesStore();
+        var meterHandles = new MeterHandles(new SimpleMeterRegistry(), store, properties);
+        writer = new PrometheusTextWriter(meterHandles, store);
+
+        for (int d = 0; d < seriesCount / METRICS_PER_DEVICE; d++) {
+            var device = meterHandles.forDevice(new Device("device-" + d, "SN" + d));
+            for (int m = 0; m < METRICS_PER_DEVICE; m++) {
+                device.setValue("pd_status_metric_" + m, m % 2 == 0 ? m * 10 : m + 0.25);
+            }
+        }
+        for (SeriesHandle handle : meterHandles.getSeries()) {
+            int id = handle.getId();
+            Gauge.builder(handle.getKey().getName(), store, s -> s.value(id))
+                    .tags(handle.getKey().getTags())
+                    .register(registry);
+        }
+    }
+
+    @Benchmark
+    public String actuatorScrape() {
+        return registry.scrape();
+    }
+
+    @Benchmark
+    public void directScrape(Blackhole bh) throws IOException {
+        var out = new BlackholeOutputStream(bh);
+        writer.write(out, false);
+    }
+
+    private static final class BlackholeOutputStream extends OutputStream {
+        private final Blackhole bh;
+
+        BlackholeOutputStream(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b);
+            bh.consume(len);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.DeviceMeters;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of existing series through {@code DeviceMeters}, uncontended and with four threads on one device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeriesUpdateBenchmark {
+    private static final String[] NAMES = {"inv_status_ac_in_vol", "inv_status_output_watts",
+            "bms_status_soc", "pd_status_watts_in_sum", "pd_status_watts_out_sum", "ems_status_f32_lcd_show_soc"};
+
+    private DeviceMeters deviceMeters;
+    private double value;
+
+    @Setup
+    public void setup() {
+        deviceMeters = new Fixtures().meterHandles.forDevice(new Device("bench", "BENCH0"));
+        for (String name : NAMES) {
+            deviceMeters.setValue(name, 0);
+            deviceMeters.setIndexedValue(name, 0, 0);
+            deviceMeters.setSerialValue(name, "BENCH1", 0);
+        }
+    }
+
+    @Benchmark
+    public void setValue() {
+        value++;
+        for (String name : NAMES) {
+            deviceMeters.setValue(name, value);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void setValueContended() {
+        for (String name : NAMES) {
+            deviceMeters.setValue(name, 42);
+        }
+    }
+
+    @Benchmark
+    public void setIndexedValue() {
+        value++;
+        for (String name : NAMES) {
+            deviceMeters.setIndexedValue(name, 0, value);
+        }
+    }
+
+    @Benchmark
+    public void setSerialValue() {
+        value++;
+        for (String name : NAMES) {
+            deviceMeters.setSerialValue(name, "BENCH1", value);
+        }
+    }
+}
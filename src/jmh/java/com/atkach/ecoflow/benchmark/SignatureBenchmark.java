@@ -0,0 +1,83 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.utils.AttributeStringGenerator;
+import com.atkach.ecoflow.utils.SignatureUtil;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Formatter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request signing as done before the signing fast path (new {@code Mac}, strong {@code SecureRandom} and
+ * {@code Formatter} per request) against {@link SignatureUtil}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+    private static final String ACCESS_KEY = "Fp4SvIprYSDPXtYJidEtUAd1o";
+    private static final String SECRET = "WIbFEKre0s6sLnh4ei7SPUeYnptHG6V";
+    private static final String ZONE = "UTC+5";
+
+    public static class Body {
+        private String sn = "123456789";
+        private Params params = new Params();
+    }
+
+    public static class Params {
+        private int cmdSet = 11;
+        private int id = 24;
+        private int eps = 0;
+    }
+
+    private final Body body = new Body();
+    private final StringBuilder builder = new StringBuilder(256);
+
+    @Benchmark
+    public HttpHeaders signDeviceList() throws Exception {
+        return SignatureUtil.generateSignature(null, ZONE, ACCESS_KEY, SECRET, Map.of(), null);
+    }
+
+    @Benchmark
+    public HttpHeaders signWithBody() throws Exception {
+        return SignatureUtil.generateSignature(null, ZONE, ACCESS_KEY, SECRET, Map.of(), body);
+    }
+
+    @Benchmark
+    public StringBuilder flattenBody() {
+        builder.setLength(0);
+        AttributeStringGenerator.appendAttributes(builder, body);
+        return builder;
+    }
+
+    @Benchmark
+    public Map<String, String> flattenBodyToMap() {
+        return AttributeStringGenerator.generateAttributesMap(body);
+    }
+
+    @Benchmark
+    public String legacySignDeviceList() throws Exception {
+        var timestamp = String.format("%d", ZonedDateTime.now(ZoneId.of(ZONE)).toInstant().toEpochMilli());
+        var nonce = String.format("%06d", SecureRandom.getInstanceStrong().nextInt(1000000));
+        var stringToSign = String.format("accessKey=%s&nonce=%s&timestamp=%s", ACCESS_KEY, nonce, timestamp);
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(), "HmacSHA256"));
+        try (Formatter result = new Formatter()) {
+            for (var b : mac.doFinal(stringToSign.getBytes())) {
+                result.format("%02x", b & 0xff);
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.atkach.ecoflow.benchmark;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.SeriesLifecycle;
+import com.atkach.ecoflow.metrics.SeriesSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and restoring a snapshot of 100k series (1000 devices with 100 series each).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnapshotBenchmark {
+    private static final int DEVICES = 1000;
+    private static final int SERIES_PER_DEVICE = 100;
+
+    private Path path;
+    private final List<Device> devices = new ArrayList<>();
+    private Fixtures populated;
+    private SeriesSnapshot populatedSnapshot;
+    private Fixtures empty;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        path = Files.createTempDirectory("ecoflow-snapshot").resolve("series.snapshot");
+        populated = fixtures();
+        for (int d = 0; d < DEVICES; d++) {
+            var device = new Device("device-" + d, "SN" + d);
+            devices.add(device);
+            var deviceMeters = populated.meterHandles.forDevice(device);
+            for (int s = 0; s < SERIES_PER_DEVICE; s++) {
+                deviceMeters.setValue("param_" + s, s * 0.5 + d);
+            }
+        }
+        populatedSnapshot = snapshot(populated);
+        populatedSnapshot.scheduledWrite();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpEmpty() {
+        empty = fixtures();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(path.getParent());
+    }
+
+    @Benchmark
+    public void write() {
+        populatedSnapshot.scheduledWrite();
+    }
+
+    @Benchmark
+    public SeriesSnapshot restore() {
+        return snapshot(empty);
+    }
+
+    private Fixtures fixtures() {
+        var fixtures = new Fixtures();
+        fixtures.properties.getSnapshot().setPath(path.toString());
+        return fixtures;
+    }
+
+    private SeriesSnapshot snapshot(Fixtures fixtures) {
+        var lifecycle = new SeriesLifecycle(fixtures.meterHandles, fixtures.seriesStore, fixtures.properties,
+                fixtures.meterRegistry);
+        return new SeriesSnapshot(fixtures.meterHandles, fixtures.seriesStore, lifecycle, devices,
+                fixtures.properties, fixtures.meterRegistry);
+    }
+}
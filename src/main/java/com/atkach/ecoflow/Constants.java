@@ -4,5 +4,6 @@ public interface Constants {
     String LOGIN_RESPONSE_FILE = "loginResponse.json";
     String APP_CERT_RESPONSE_FILE = "appCertificateResponse.json";
     String MQTT_CREDENTIALS_FILE = "mqttCredentials.json";
+    String DEVICE_LIST_FILE = "deviceList.json";
     String TOPIC_TMPL = "/open/%s/%s/quota";
 }
@@ -0,0 +1,102 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.dto.MqttCredentials;
+import com.atkach.ecoflow.dto.data.DeviceListResponseData;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static com.atkach.ecoflow.Constants.DEVICE_LIST_FILE;
+import static com.atkach.ecoflow.Constants.MQTT_CREDENTIALS_FILE;
+
+/**
+ * Last good device list and MQTT credentials of one account, in {@code ecoflow.cache.dir/<account>}.
+ * <p>
+ * Files are replaced atomically, so a crash while saving leaves the previous ones. The credentials file is
+ * readable by its owner only where the file system supports POSIX permissions.
+ */
+@Log4j2
+public class ClientCache {
+    private static final TypeReference<List<DeviceListResponseData>> DEVICE_LIST = new TypeReference<>() {
+    };
+
+    private final Path dir;
+    private final ObjectMapper objectMapper;
+    @Getter
+    private final EcoflowProperties.Cache config;
+
+    public ClientCache(Path dir, EcoflowProperties.Cache config, ObjectMapper objectMapper) {
+        this.dir = dir;
+        this.config = config;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return the cached device list, {@code null} if there is none or it can not be read
+     */
+    public List<DeviceListResponseData> loadDevices() {
+        return load(DEVICE_LIST_FILE, file -> objectMapper.readValue(file.toFile(), DEVICE_LIST));
+    }
+
+    /**
+     * @return the cached credentials, {@code null} if there are none or they can not be read
+     */
+    public MqttCredentials loadCredentials() {
+        return load(MQTT_CREDENTIALS_FILE, file -> objectMapper.readValue(file.toFile(), MqttCredentials.class));
+    }
+
+    public void saveDevices(List<DeviceListResponseData> devices) {
+        save(DEVICE_LIST_FILE, devices, false);
+    }
+
+    public void saveCredentials(MqttCredentials credentials) {
+        save(MQTT_CREDENTIALS_FILE, credentials, true);
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(Path file) throws IOException;
+    }
+
+    private <T> T load(String name, Reader<T> reader) {
+        var file = dir.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return reader.read(file);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable cache file " + file, e);
+            return null;
+        }
+    }
+
+    private void save(String name, Object value, boolean secret) {
+        var file = dir.resolve(name);
+        try {
+            Files.createDirectories(dir);
+            var temp = Files.createTempFile(dir, name, ".tmp");
+            try {
+                if (secret && temp.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                    Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+                }
+                objectMapper.writeValue(temp.toFile(), value);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // the cache only speeds up the next start
+            log.warn("Could not write cache file " + file, e);
+        }
+    }
+}
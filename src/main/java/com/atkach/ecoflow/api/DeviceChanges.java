@@ -0,0 +1,38 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.api.dto.Device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Difference between two device lists of an account. A renamed device is removed under its old name and added
+ * under the new one, its series carry the name.
+ */
+public record DeviceChanges(List<Device> added, List<Device> removed) {
+    public static DeviceChanges between(Map<String, Device> current, Map<String, Device> next) {
+        var added = new ArrayList<Device>();
+        var removed = new ArrayList<Device>();
+        for (Device device : next.values()) {
+            if (!device.equals(current.get(device.getSn()))) {
+                added.add(device);
+            }
+        }
+        for (Device device : current.values()) {
+            if (!device.equals(next.get(device.getSn()))) {
+                removed.add(device);
+            }
+        }
+        return new DeviceChanges(List.copyOf(added), List.copyOf(removed));
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "added " + added + ", removed " + removed;
+    }
+}
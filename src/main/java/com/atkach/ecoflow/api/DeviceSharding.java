@@ -0,0 +1,57 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.atkach.ecoflow.utils.ConsistentHashRing;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Decides which devices this replica subscribes to.
+ * <p>
+ * Replicas are nodes of a {@link ConsistentHashRing} over device serial numbers, either {@code shard-0} to
+ * {@code shard-<shardCount - 1>} or the names in {@code ecoflow.sharding.peers}. Changing the number of replicas
+ * only moves the devices of the added or removed ones. Without sharding every device is taken.
+ */
+@Log4j2
+@Component
+public class DeviceSharding implements Predicate<Device> {
+    private final ConsistentHashRing ring;
+    private final String self;
+
+    public DeviceSharding(EcoflowProperties ecoflowProperties) {
+        var config = ecoflowProperties.getSharding();
+        if (!config.getPeers().isEmpty()) {
+            if (!config.getPeers().contains(config.getSelf())) {
+                throw new IllegalStateException("ecoflow.sharding.self must be one of ecoflow.sharding.peers");
+            }
+            this.ring = new ConsistentHashRing(config.getPeers(), config.getVirtualNodes());
+            this.self = config.getSelf();
+        } else if (config.getShardCount() > 1) {
+            if (config.getShardIndex() < 0 || config.getShardIndex() >= config.getShardCount()) {
+                throw new IllegalStateException("ecoflow.sharding.shardIndex must be within [0, shardCount)");
+            }
+            var nodes = new ArrayList<String>();
+            for (int i = 0; i < config.getShardCount(); i++) {
+                nodes.add("shard-" + i);
+            }
+            this.ring = new ConsistentHashRing(nodes, config.getVirtualNodes());
+            this.self = "shard-" + config.getShardIndex();
+        } else {
+            this.ring = null;
+            this.self = null;
+        }
+
+        if (ring != null) {
+            log.info("Sharding enabled, this replica is {} of {}", self, ring.getNodes());
+        }
+    }
+
+    @Override
+    public boolean test(Device device) {
+        return ring == null || self.equals(ring.nodeFor(device.getSn()));
+    }
+}
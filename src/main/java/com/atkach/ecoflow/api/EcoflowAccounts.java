@@ -0,0 +1,224 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.atkach.ecoflow.utils.ThreadFactories;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The {@link EcoflowClient}s of the configured accounts.
+ * <p>
+ * Without {@code ecoflow.accounts} there is a single client for {@code ecoflow.api}, and a failing start fails the
+ * application as before. With accounts, clients are started in parallel on {@code ecoflow.connectThreads} threads
+ * (one virtual thread per account with {@code ecoflow.virtualThreads}) and an account which cannot be started is
+ * left out, as long as one can.
+ * <p>
+ * With {@code ecoflow.cache.dir} every account keeps its last good device list and credentials in a
+ * subdirectory named after it ({@value EcoflowClient#DEFAULT_ACCOUNT} in single account mode), see
+ * {@link ClientCache}.
+ */
+@Log4j2
+@Component
+public class EcoflowAccounts {
+    private final List<EcoflowClient> clients;
+    /**
+     * Immutable, replaced as a whole when devices change, read by the MQTT threads.
+     */
+    private volatile Map<String, EcoflowClient> clientsByTopic = Map.of();
+    private final Map<EcoflowClient, Counter> messagesReceived = new HashMap<>();
+    private final ScheduledExecutorService refresher =
+            Executors.newSingleThreadScheduledExecutor(ThreadFactories.platform("ecoflow-account-refresh-"));
+
+    public EcoflowAccounts(RestTemplate restTemplate, EcoflowProperties ecoflowProperties, DeviceSharding sharding,
+                           @Value("${ecoflow.zoneId}") String zoneId, ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry) throws Exception {
+        boolean offline = ecoflowProperties.getReplay().isEnabled();
+        if (ecoflowProperties.getAccounts().isEmpty()) {
+            if (!offline && (ecoflowProperties.getApi() == null
+                    || StringUtils.isBlank(ecoflowProperties.getApi().getAccessKey()))) {
+                throw new IllegalStateException("Either ecoflow.api.accessKey or ecoflow.accounts has to be set");
+            }
+            var client = new EcoflowClient(restTemplate, null, ecoflowProperties.getApi(), zoneId, sharding,
+                    createCache(ecoflowProperties, EcoflowClient.DEFAULT_ACCOUNT, objectMapper), refresher);
+            start(client, offline);
+            this.clients = List.of(client);
+        } else {
+            int threads = ecoflowProperties.isVirtualThreads() ?
+                    ecoflowProperties.getAccounts().size() : ecoflowProperties.getConnectThreads();
+            this.clients = startAll(createClients(restTemplate, ecoflowProperties, sharding, zoneId, objectMapper),
+                    threads, ThreadFactories.create("ecoflow-account-start-", ecoflowProperties.isVirtualThreads()),
+                    offline);
+        }
+
+        rebuildTopicIndex();
+        for (EcoflowClient client : clients) {
+            messagesReceived.put(client, Counter.builder("ecoflow_account_messages_total")
+                    .tag("account", client.getName())
+                    .register(meterRegistry));
+            Gauge.builder("ecoflow_account_devices", client, c -> c.getDevices().size())
+                    .tag("account", client.getName())
+                    .register(meterRegistry);
+            Gauge.builder("ecoflow_account_connected", client, c -> c.isConnected() ? 1 : 0)
+                    .tag("account", client.getName())
+                    .register(meterRegistry);
+            Gauge.builder("ecoflow_account_started_from_cache", client, c -> c.isStartedFromCache() ? 1 : 0)
+                    .tag("account", client.getName())
+                    .register(meterRegistry);
+            FunctionCounter.builder("ecoflow_account_refresh_failures_total", client,
+                            c -> c.getRefreshFailures().get())
+                    .tag("account", client.getName())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Applies the current device list of every account, see {@link EcoflowClient#discover}.
+     *
+     * @return changes per account, accounts whose list could not be fetched are left out
+     */
+    public Map<EcoflowClient, DeviceChanges> discover() {
+        var changes = new LinkedHashMap<EcoflowClient, DeviceChanges>();
+        for (EcoflowClient client : clients) {
+            try {
+                changes.put(client, client.discover(this::rebuildTopicIndex));
+            } catch (Exception e) {
+                log.warn("Could not discover devices of account {}: {}", client.getName(), e.toString());
+            }
+        }
+        return changes;
+    }
+
+    private synchronized void rebuildTopicIndex() {
+        var index = new HashMap<String, EcoflowClient>();
+        for (EcoflowClient client : clients) {
+            client.getTopics().keySet().forEach(topic -> index.put(topic, client));
+        }
+        clientsByTopic = Map.copyOf(index);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private static ClientCache createCache(EcoflowProperties ecoflowProperties, String account,
+                                           ObjectMapper objectMapper) {
+        var config = ecoflowProperties.getCache();
+        if (StringUtils.isBlank(config.getDir())) {
+            return null;
+        }
+        return new ClientCache(Path.of(config.getDir(), account), config, objectMapper);
+    }
+
+    private List<EcoflowClient> createClients(RestTemplate restTemplate, EcoflowProperties ecoflowProperties,
+                                              DeviceSharding sharding, String zoneId, ObjectMapper objectMapper) {
+        var clients = new ArrayList<EcoflowClient>();
+        for (EcoflowProperties.Account account : ecoflowProperties.getAccounts()) {
+            if (StringUtils.isBlank(account.getName())) {
+                throw new IllegalStateException("Every entry of ecoflow.accounts needs a name");
+            }
+            var api = account.getApi();
+            if (api.getHost() == null && ecoflowProperties.getApi() != null) {
+                api.setHost(ecoflowProperties.getApi().getHost());
+            }
+            clients.add(new EcoflowClient(restTemplate, account.getName(), api,
+                    account.getZoneId() != null ? account.getZoneId() : zoneId, sharding,
+                    createCache(ecoflowProperties, account.getName(), objectMapper), refresher));
+        }
+        return clients;
+    }
+
+    /**
+     * Offline (replay mode) clients take devices and topics from the cache and do not connect.
+     */
+    private static void start(EcoflowClient client, boolean offline) throws Exception {
+        if (offline) {
+            client.startOffline();
+        } else {
+            client.start();
+        }
+    }
+
+    private static List<EcoflowClient> startAll(List<EcoflowClient> clients, int threads, ThreadFactory threadFactory,
+                                                boolean offline) throws InterruptedException {
+        var executor = Executors.newFixedThreadPool(Math.max(1, threads), threadFactory);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (EcoflowClient client : clients) {
+                futures.add(executor.submit(() -> {
+                    start(client, offline);
+                    return null;
+                }));
+            }
+
+            var started = new ArrayList<EcoflowClient>();
+            for (int i = 0; i < clients.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    started.add(clients.get(i));
+                } catch (ExecutionException e) {
+                    log.error("Account " + clients.get(i).getName() + " could not be started", e.getCause());
+                }
+            }
+            if (started.isEmpty()) {
+                throw new IllegalStateException("None of the EcoFlow accounts could be started");
+            }
+            log.info("Started {} of {} accounts", started.size(), clients.size());
+            return List.copyOf(started);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public List<EcoflowClient> getClients() {
+        return clients;
+    }
+
+    public List<Device> getDevices() {
+        var devices = new ArrayList<Device>();
+        clients.forEach(client -> devices.addAll(client.getDevices().values()));
+        return devices;
+    }
+
+    public void subscribe(IMqttMessageListener messageListener) throws MqttException {
+        for (EcoflowClient client : clients) {
+            client.subscribe(messageListener);
+        }
+    }
+
+    public Device getDeviceByTopic(String topic) {
+        var client = clientsByTopic.get(topic);
+        return client != null ? client.getDeviceByTopic(topic) : null;
+    }
+
+    public void messageReceived(String topic) {
+        var client = clientsByTopic.get(topic);
+        if (client != null) {
+            messagesReceived.get(client).increment();
+        }
+    }
+}
@@ -11,38 +11,68 @@ import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
-import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static com.atkach.ecoflow.Constants.TOPIC_TMPL;
 import static com.atkach.ecoflow.utils.SignatureUtil.generateSignature;
 
+/**
+ * API and MQTT connection of one EcoFlow developer account, created by {@link EcoflowAccounts}.
+ * <p>
+ * With a {@link ClientCache} the client starts from the last good device list and MQTT credentials, without
+ * waiting for the API, and refreshes both in the background, retrying with exponential backoff. Without a cache,
+ * or if the broker rejects the cached credentials, both are fetched before connecting.
+ */
 @Log4j2
-@Component
 public class EcoflowClient {
+    public static final String DEFAULT_ACCOUNT = "default";
+
     private final RestTemplate restTemplate;
-    private final EcoflowProperties ecoflowProperties;
+    private final EcoflowProperties.Api api;
+    /**
+     * {@code null} in single account mode, devices and series then carry no account.
+     */
+    @Getter
+    private final String account;
+    @Getter
+    private volatile Map<String, Device> devices;
     @Getter
-    private Map<String, Device> devices;
+    private volatile Map<String, Device> topics;
+    private final String zoneId;
+    private final Predicate<Device> deviceFilter;
+    private final ClientCache cache;
+    private final ScheduledExecutorService refresher;
+    /**
+     * Whether the running connection was set up from the {@link ClientCache}.
+     */
     @Getter
-    private Map<String, Device> topics;
-    private String zoneId;
+    private volatile boolean startedFromCache;
+    @Getter
+    private final AtomicLong refreshFailures = new AtomicLong();
 
     private MqttClient mqttClient;
     private MqttConnectOptions connectOptions;
+    private MqttCredentials credentials;
+    private volatile IMqttMessageListener messageListener;
+    private final ReentrantLock discoveryLock = new ReentrantLock();
 
     protected String generateAppCertificationUrl() {
-        return String.format("https://%s/iot-open/sign/certification", ecoflowProperties.getApi().getHost());
+        return String.format("https://%s/iot-open/sign/certification", api.getHost());
     }
 
     protected String generateDeviceListUrl() {
-        return String.format("https://%s/iot-open/sign/device/list", ecoflowProperties.getApi().getHost());
+        return String.format("https://%s/iot-open/sign/device/list", api.getHost());
     }
 
     protected <T extends AbstractResponse> T performGet(
@@ -54,8 +84,8 @@ public class EcoflowClient {
         HttpEntity<Void> requestEntity = new HttpEntity<>(generateSignature(
                 signatureLogs,
                 zoneId,
-                ecoflowProperties.getApi().getAccessKey(),
-                ecoflowProperties.getApi().getSecret(),
+                api.getAccessKey(),
+                api.getSecret(),
                 uriVariables, null));
 
         return restTemplate.exchange(url, HttpMethod.GET,
@@ -82,11 +112,14 @@ public class EcoflowClient {
                 .build();
     }
 
-    protected void initMqttClient() throws Exception {
-        MqttCredentials credentials = fetchMqttCredentials();
-
-        mqttClient = new MqttClient("ssl://" + credentials.getHost() + ":" + credentials.getPort(),
+    protected MqttClient createMqttClient(MqttCredentials credentials) throws MqttException {
+        return new MqttClient("ssl://" + credentials.getHost() + ":" + credentials.getPort(),
                 credentials.getClientId(), new MemoryPersistence());
+    }
+
+    protected void initMqttClient(MqttCredentials credentials) throws MqttException {
+        this.credentials = credentials;
+        mqttClient = createMqttClient(credentials);
         connectOptions = new MqttConnectOptions();
 
         connectOptions.setUserName(credentials.getLogin());
@@ -96,35 +129,222 @@ public class EcoflowClient {
         connectOptions.setConnectionTimeout(10);
     }
 
-    public EcoflowClient(
-            RestTemplate restTemplate,
-            EcoflowProperties ecoflowProperties,
-            @Value("${ecoflow.zoneId}")
-            String zoneId) throws Exception {
-        this.zoneId = zoneId;
+    public EcoflowClient(RestTemplate restTemplate, String account, EcoflowProperties.Api api, String zoneId,
+                         Predicate<Device> deviceFilter) {
+        this(restTemplate, account, api, zoneId, deviceFilter, null, null);
+    }
+
+    /**
+     * @param deviceFilter devices of the account this client subscribes to
+     * @param cache        {@code null} to always start from the API
+     * @param refresher    runs the background refresh, required with a cache
+     */
+    public EcoflowClient(RestTemplate restTemplate, String account, EcoflowProperties.Api api, String zoneId,
+                         Predicate<Device> deviceFilter, ClientCache cache, ScheduledExecutorService refresher) {
         this.restTemplate = restTemplate;
-        this.ecoflowProperties = ecoflowProperties;
+        this.account = account;
+        this.api = api;
+        this.zoneId = zoneId;
+        this.deviceFilter = deviceFilter;
+        this.cache = cache;
+        this.refresher = refresher;
+    }
+
+    public String getName() {
+        return account != null ? account : DEFAULT_ACCOUNT;
+    }
+
+    /**
+     * Connects to the MQTT broker, with the cached device list and credentials if there are any.
+     */
+    public void start() throws Exception {
+        if (cache != null && startFromCache()) {
+            refresher.schedule(() -> refresh(cache.getConfig().getRetryInitial()), 0, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        var deviceList = fetchDeviceList();
+        var credentials = fetchMqttCredentials();
+        if (cache != null) {
+            cache.saveDevices(deviceList);
+            cache.saveCredentials(credentials);
+        }
+        connect(deviceList, credentials);
+    }
+
+    /**
+     * Loads devices and topics from the cache without connecting, for replaying captured messages. The cache
+     * directory then serves as the device fixture.
+     */
+    public void startOffline() {
+        var deviceList = cache != null ? cache.loadDevices() : null;
+        var credentials = cache != null ? cache.loadCredentials() : null;
+        if (deviceList == null || credentials == null) {
+            throw new IllegalStateException("Account " + getName() + " has no deviceList.json and "
+                    + "mqttCredentials.json in ecoflow.cache.dir to replay with");
+        }
+        var devices = selectDevices(deviceList);
+        logDevices(devices, deviceList.size());
+        this.credentials = credentials;
+        this.devices = devices;
+        this.topics = topicIndex(devices);
+    }
+
+    private boolean startFromCache() {
+        var deviceList = cache.loadDevices();
+        var credentials = cache.loadCredentials();
+        if (deviceList == null || credentials == null) {
+            log.info("No cached devices and credentials of account {}, starting from the API", getName());
+            return false;
+        }
+        try {
+            connect(deviceList, credentials);
+        } catch (MqttException e) {
+            log.warn("Could not connect account {} with cached credentials, starting from the API: {}",
+                    getName(), e.toString());
+            closeQuietly();
+            return false;
+        }
+        startedFromCache = true;
+        log.info("Account {} started from cached devices and credentials", getName());
+        return true;
+    }
+
+    private void connect(List<DeviceListResponseData> deviceList, MqttCredentials credentials)
+            throws MqttException {
+        var devices = selectDevices(deviceList);
+        logDevices(devices, deviceList.size());
+        initMqttClient(credentials);
+        this.devices = devices;
+        this.topics = topicIndex(devices);
+        connect();
+    }
+
+    /**
+     * Fetches the device list and applies its difference to the running client. Topics of removed devices are
+     * unsubscribed before they leave the index, topics of new devices are subscribed after they entered it.
+     * The index is immutable and replaced as a whole, so the MQTT threads read it without locking.
+     *
+     * @param indexChanged called after the index was replaced, before new topics are subscribed
+     */
+    public DeviceChanges discover(Runnable indexChanged) throws Exception {
+        if (mqttClient == null) {
+            throw new IllegalStateException("Account " + getName() + " was started offline");
+        }
+        var deviceList = fetchDeviceList();
+        discoveryLock.lock();
+        try {
+            if (cache != null) {
+                cache.saveDevices(deviceList);
+            }
+            var next = selectDevices(deviceList);
+            var changes = DeviceChanges.between(devices, next);
+            if (changes.isEmpty()) {
+                return changes;
+            }
 
+            var nextTopics = topicIndex(next);
+            var listener = messageListener;
+            var removedTopics = topics.keySet().stream().filter(t -> !nextTopics.containsKey(t))
+                    .toArray(String[]::new);
+            if (listener != null && removedTopics.length > 0) {
+                log.info("Unsubscribing from topics {}", Arrays.toString(removedTopics));
+                mqttClient.unsubscribe(removedTopics);
+            }
+            var addedTopics = nextTopics.keySet().stream().filter(t -> !topics.containsKey(t)).toList();
+            this.devices = next;
+            this.topics = nextTopics;
+            indexChanged.run();
+            if (listener != null) {
+                for (String topic : addedTopics) {
+                    log.info("Subscribing to topic {}", topic);
+                    mqttClient.subscribe(topic, listener);
+                }
+            }
+            log.info("Devices of account {} changed: {}", getName(), changes);
+            return changes;
+        } finally {
+            discoveryLock.unlock();
+        }
+    }
+
+    private Map<String, Device> topicIndex(Map<String, Device> devices) {
+        var topics = new HashMap<String, Device>();
+        for (Device d : devices.values()) {
+            topics.put(String.format(TOPIC_TMPL, credentials.getLogin(), d.getSn()), d);
+        }
+        return Map.copyOf(topics);
+    }
+
+    /**
+     * Fetches device list and credentials, and saves them for the next start. Retries with backoff until it
+     * succeeds.
+     * <p>
+     * Changed credentials are used from the next reconnect on, a changed device list with the next
+     * {@link #discover}.
+     */
+    private void refresh(Duration retryDelay) {
+        try {
+            var deviceList = fetchDeviceList();
+            // keep the client id, the broker sees the same client after a restart
+            var refreshed = fetchMqttCredentials().toBuilder().clientId(credentials.getClientId()).build();
+            cache.saveDevices(deviceList);
+            cache.saveCredentials(refreshed);
+
+            if (!refreshed.equals(credentials)) {
+                if (Objects.equals(refreshed.getLogin(), credentials.getLogin())) {
+                    log.info("MQTT credentials of account {} changed, using them from the next reconnect", getName());
+                    connectOptions.setPassword(refreshed.getPassword().toCharArray());
+                    credentials = refreshed;
+                } else {
+                    log.warn("MQTT account of account {} changed, restart to subscribe with it", getName());
+                }
+            }
+            if (!selectDevices(deviceList).equals(devices)) {
+                log.info("Devices of account {} changed since the cached list, the next discovery applies it",
+                        getName());
+            }
+            log.info("Refreshed devices and credentials of account {}", getName());
+        } catch (Exception e) {
+            refreshFailures.incrementAndGet();
+            var max = cache.getConfig().getRetryMax();
+            var next = retryDelay.multipliedBy(2).compareTo(max) > 0 ? max : retryDelay.multipliedBy(2);
+            log.warn("Could not refresh account {}, retrying in {}: {}", getName(), retryDelay, e.toString());
+            refresher.schedule(() -> refresh(next), retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private List<DeviceListResponseData> fetchDeviceList() throws Exception {
         var signatureLogs = new ArrayList<String>();
         var devicesResponse = requestDeviceList(signatureLogs);
 
         if (devicesResponse.getCode() != 0) {
-            log.error("Error getting devices: [{}] {}", devicesResponse.getCode(), devicesResponse.getMessage());
+            log.error("Error getting devices of account {}: [{}] {}", getName(), devicesResponse.getCode(),
+                    devicesResponse.getMessage());
             if (devicesResponse.getCode() == 8521 || devicesResponse.getCode() == 8513) {
-                log.info("Check your access key \"{}\" and secret \"{}\"", ecoflowProperties.getApi().getAccessKey(), ecoflowProperties.getApi().getSecret());
+                log.info("Check your access key \"{}\" and secret \"{}\"", api.getAccessKey(), api.getSecret());
                 log.info("Signature generation details:\n{}", String.join("\n", signatureLogs));
             }
-            throw new IllegalStateException("Error getting devices");
+            throw new IllegalStateException("Error getting devices of account " + getName());
         }
+        return devicesResponse.getData();
+    }
+
+    private Map<String, Device> selectDevices(List<DeviceListResponseData> deviceList) {
+        return deviceList.stream()
+                .map(d -> new Device(d.getDeviceName(), d.getSn(), account))
+                .filter(deviceFilter)
+                .collect(Collectors.toUnmodifiableMap(Device::getSn, d -> d));
+    }
 
-        this.devices = devicesResponse.getData().stream()
-                .collect(Collectors.toMap(
-                        DeviceListResponseData::getSn,
-                        d -> new Device(d.getDeviceName(), d.getSn())
-                ));
+    private void logDevices(Map<String, Device> devices, int allDevices) {
+        if (devices.size() < allDevices) {
+            log.info("Account {}: {} of {} devices belong to this shard", getName(), devices.size(), allDevices);
+        }
 
         log.info(
-                "Devices found: \n{}",
+                "Devices found for account {}: \n{}",
+                getName(),
                 devices.values().stream()
                         .map(
                                 device -> String.format(
@@ -132,25 +352,61 @@ public class EcoflowClient {
                                 )
                         ).collect(Collectors.joining("\n"))
         );
+    }
 
-        initMqttClient();
-        connect();
+    private void closeQuietly() {
+        try {
+            mqttClient.close();
+        } catch (MqttException e) {
+            log.debug("Could not close MQTT client of account {}", getName(), e);
+        }
     }
 
-    public void subscribe(MqttCallbackExtended mqttCallback, IMqttMessageListener messageListener)
-            throws MqttException {
-        topics = new HashMap<>();
-        for (Device d : devices.values()) {
-            var topic = String.format(TOPIC_TMPL, connectOptions.getUserName(), d.getSn());
+    /**
+     * Subscribes to the quota topics of all devices, again after every reconnect.
+     */
+    public void subscribe(IMqttMessageListener messageListener) throws MqttException {
+        this.messageListener = messageListener;
+        if (mqttClient == null) {
+            // started offline
+            return;
+        }
+        mqttClient.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                try {
+                    log.info("Connected to MQTT broker, account {}", getName());
+                    subscribeTopics(messageListener);
+                } catch (Exception e) {
+                    log.error("Unexpected error in subscriber during connection, account " + getName(), e);
+                }
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                log.error("Connection lost, account {}", getName());
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+        subscribeTopics(messageListener);
+    }
+
+    private void subscribeTopics(IMqttMessageListener messageListener) throws MqttException {
+        for (String topic : topics.keySet()) {
             log.info("Subscribing to topic {}", topic);
-            topics.put(topic, d);
             mqttClient.subscribe(topic, messageListener);
         }
-        mqttClient.setCallback(mqttCallback);
     }
 
     public boolean isConnected() {
-        return mqttClient.isConnected();
+        return mqttClient != null && mqttClient.isConnected();
     }
 
     public void reconnect() throws MqttException {
@@ -2,17 +2,22 @@ package com.atkach.ecoflow.api.dto;
 
 import lombok.Data;
 
-import java.time.LocalDateTime;
-
 @Data
 public class Device {
     private String name;
     private String sn;
-    private LocalDateTime lastMessage;
+    /**
+     * Account the device belongs to, {@code null} in single account mode.
+     */
+    private String account;
 
     public Device(String name, String sn) {
+        this(name, sn, null);
+    }
+
+    public Device(String name, String sn, String account) {
         this.name = name;
         this.sn = sn;
-        this.lastMessage = LocalDateTime.now();
+        this.account = account;
     }
 }
@@ -1,29 +1,213 @@
 package com.atkach.ecoflow.controller;
 
-import com.atkach.ecoflow.controller.dto.MetricDTO;
-import com.atkach.ecoflow.controller.dto.TagDTO;
-import com.atkach.ecoflow.mqtt.MqttSubscriber;
+import com.atkach.ecoflow.metrics.SeriesStore;
+import com.atkach.ecoflow.mqtt.MetricCacheKey;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * The series of the store, written with the JSON generator while walking the store instead of collecting them
+ * first.
+ * <p>
+ * Series can be filtered by {@code device}, metric name {@code prefix} and any number of {@code tag=key:value}.
+ * Without a {@code limit} the response is the array of all matching series, as it always was. With a
+ * {@code limit} it is {@code {"series": [...], "nextCursor": ...}}, the cursor to pass as {@code cursor} for the
+ * next page, {@code null} on the last page. Cursors are series ids, series created or removed while paging may
+ * be missed.
+ * <p>
+ * {@code format=ndjson} (or {@code Accept: application/x-ndjson}) writes one compact object per line, tags as
+ * an object, and a last {@code {"nextCursor": ...}} line if there are more pages.
+ */
 @RestController
 @RequiredArgsConstructor
 public class DebugController {
-    private final MqttSubscriber mqttSubscriber;
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final SeriesStore seriesStore;
+    private final ObjectMapper objectMapper;
+
+    private record Filter(String device, String prefix, List<Tag> tags) {
+        boolean matches(MetricCacheKey key) {
+            if (prefix != null && !key.getName().startsWith(prefix)) {
+                return false;
+            }
+            if (device != null && !hasTag(key, "device", device)) {
+                return false;
+            }
+            for (Tag tag : tags) {
+                if (!hasTag(key, tag.getKey(), tag.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean hasTag(MetricCacheKey key, String name, String value) {
+            for (Tag tag : key.getTags()) {
+                if (tag.getKey().equals(name) && tag.getValue().equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 
     @GetMapping("/debug")
-    public List<MetricDTO> getCache() {
-        return mqttSubscriber.getMetricsCache().entrySet()
-                .stream()
-                .map(
-                        e -> new MetricDTO(e.getKey().getName(),
-                                e.getKey().getTags()
-                                        .stream().map(
-                                                t -> new TagDTO(t.getKey(), t.getValue())
-                                        ).toList(), e.getValue().doubleValue())
-                ).toList();
+    public void getCache(@RequestParam(required = false) String device,
+                         @RequestParam(required = false) String prefix,
+                         @RequestParam(required = false) List<String> tag,
+                         @RequestParam(defaultValue = "0") int limit,
+                         @RequestParam(required = false) String cursor,
+                         @RequestParam(required = false) String format,
+                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                         HttpServletResponse response) throws IOException {
+        var filter = new Filter(device, prefix, parseTags(tag));
+        int from = parseCursor(cursor);
+        boolean ndjson = "ndjson".equals(format) || accept != null && accept.contains(NDJSON);
+        boolean paged = limit > 0;
+
+        response.setContentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON_VALUE);
+        try (var out = new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE);
+             var generator = objectMapper.getFactory().createGenerator(out)) {
+            if (ndjson) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+            } else if (paged) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("series");
+            } else {
+                generator.writeStartArray();
+            }
+
+            int next = walk(generator, filter, from, limit, ndjson);
+
+            if (ndjson) {
+                if (next >= 0) {
+                    generator.writeStartObject();
+                    generator.writeStringField("nextCursor", Integer.toString(next));
+                    generator.writeEndObject();
+                }
+                generator.writeRaw('\n');
+            } else if (paged) {
+                generator.writeEndArray();
+                generator.writeStringField("nextCursor", next >= 0 ? Integer.toString(next) : null);
+                generator.writeEndObject();
+            } else {
+                generator.writeEndArray();
+            }
+        }
+    }
+
+    /**
+     * Walks one series past a full page, so a page ending with the last matching series has no next cursor.
+     *
+     * @return cursor of the next page, {@code -1} if this is the last one
+     */
+    private int walk(JsonGenerator generator, Filter filter, int from, int limit, boolean ndjson)
+            throws IOException {
+        long nowNanos = System.nanoTime();
+        int[] written = {0};
+        int[] next = {-1};
+        try {
+            seriesStore.walk(from, (id, key, value, lastUpdateNanos) -> {
+                if (!filter.matches(key)) {
+                    return true;
+                }
+                if (limit > 0 && written[0] == limit) {
+                    next[0] = id;
+                    return false;
+                }
+                try {
+                    writeSeries(generator, key, value, lastUpdateNanos, nowNanos, ndjson);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                written[0]++;
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return next[0];
+    }
+
+    private void writeSeries(JsonGenerator generator, MetricCacheKey key, double value, long lastUpdateNanos,
+                             long nowNanos, boolean ndjson) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("name", key.getName());
+        if (ndjson) {
+            generator.writeObjectFieldStart("tags");
+            for (Tag tag : key.getTags()) {
+                generator.writeStringField(tag.getKey(), tag.getValue());
+            }
+            generator.writeEndObject();
+        } else {
+            generator.writeArrayFieldStart("tags");
+            for (Tag tag : key.getTags()) {
+                generator.writeStartObject();
+                generator.writeStringField("tagName", tag.getKey());
+                generator.writeStringField("value", tag.getValue());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeNumberField("value", value);
+        long lastUpdateMillis = seriesStore.toEpochMillis(lastUpdateNanos);
+        if (ndjson) {
+            generator.writeNumberField("lastUpdate", lastUpdateMillis);
+        } else {
+            generator.writeStringField("lastUpdate", Instant.ofEpochMilli(lastUpdateMillis).toString());
+        }
+        generator.writeNumberField("ageSeconds", Math.max(0, nowNanos - lastUpdateNanos) / 1e9);
+        generator.writeEndObject();
+    }
+
+    private static List<Tag> parseTags(List<String> tags) {
+        if (tags == null) {
+            return List.of();
+        }
+        var result = new ArrayList<Tag>(tags.size());
+        for (String tag : tags) {
+            int colon = tag.indexOf(':');
+            if (colon <= 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "tag has to be key:value, was " + tag);
+            }
+            result.add(Tag.of(tag.substring(0, colon), tag.substring(colon + 1)));
+        }
+        return result;
+    }
+
+    private static int parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            int from = Integer.parseInt(cursor);
+            if (from >= 0) {
+                return from;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor " + cursor);
     }
 }
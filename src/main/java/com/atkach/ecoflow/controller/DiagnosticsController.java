@@ -0,0 +1,28 @@
+package com.atkach.ecoflow.controller;
+
+import com.atkach.ecoflow.controller.dto.ProblemDTO;
+import com.atkach.ecoflow.mqtt.MessageDiagnostics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Problems of the message path seen within {@code ecoflow.diagnostics.retention}, most recent first, with the
+ * number of occurrences and the detail of the last one logged.
+ */
+@RestController
+@RequiredArgsConstructor
+public class DiagnosticsController {
+    private final MessageDiagnostics diagnostics;
+
+    @GetMapping("/debug/problems")
+    public List<ProblemDTO> getProblems() {
+        return diagnostics.getProblems().stream()
+                .map(p -> new ProblemDTO(p.device(), p.parameter(), p.reason().name().toLowerCase(), p.count(),
+                        Instant.ofEpochMilli(p.firstSeen()), Instant.ofEpochMilli(p.lastSeen()), p.detail()))
+                .toList();
+    }
+}
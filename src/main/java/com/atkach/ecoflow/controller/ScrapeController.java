@@ -0,0 +1,64 @@
+package com.atkach.ecoflow.controller;
+
+import com.atkach.ecoflow.metrics.PrometheusTextWriter;
+import com.atkach.ecoflow.metrics.ScrapeCache;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Prometheus exposition of the EcoFlow series written straight from the series store, the only place they are
+ * exposed. JVM and exporter internals stay on {@code /actuator/prometheus}.
+ * <p>
+ * With {@code ecoflow.scrape.cacheEnabled} the body comes from the {@link ScrapeCache}, otherwise it is
+ * streamed while rendering.
+ */
+@RestController
+@RequiredArgsConstructor
+public class ScrapeController {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final PrometheusTextWriter prometheusTextWriter;
+    private final ScrapeCache scrapeCache;
+    private final EcoflowProperties ecoflowProperties;
+
+    @GetMapping("/metrics")
+    public void scrape(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                       HttpServletResponse response) throws IOException {
+        boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        response.setContentType(openMetrics ?
+                PrometheusTextWriter.CONTENT_TYPE_OPENMETRICS : PrometheusTextWriter.CONTENT_TYPE_004);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        if (ecoflowProperties.getScrape().isCacheEnabled()) {
+            var body = scrapeCache.body(openMetrics, gzip);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        try (var buffered = new BufferedOutputStream(out, BUFFER_SIZE)) {
+            prometheusTextWriter.write(buffered, openMetrics);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.atkach.ecoflow.controller.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProblemDTO {
+    private String device;
+    private String parameter;
+    private String reason;
+    private long count;
+    private Instant firstSeen;
+    private Instant lastSeen;
+    private String detail;
+}
@@ -1,13 +0,0 @@
-package com.atkach.ecoflow.controller.dto;
-
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-public class TagDTO {
-    private String tagName;
-    private String value;
-}
@@ -0,0 +1,197 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Series handles of one device, keyed by metric name without the {@code ecoflow_} prefix.
+ * Lookups of known series do not allocate and do not touch the {@link MeterRegistry}.
+ * <p>
+ * A handle removed by {@link MeterHandles#remove} is replaced by a new registration on its next update. Once
+ * the device is {@linkplain MeterHandles#retire retired} nothing is registered anymore, updates of messages
+ * still in flight are dropped.
+ * <p>
+ * Complex values (the ones going through the handler chain) are remembered by their raw JSON together with the
+ * series they produced, an identical value only refreshes these series.
+ */
+public class DeviceMeters {
+    private static final String PREFIX = "ecoflow_";
+
+    private final MeterHandles meterHandles;
+    @Getter
+    private final Device device;
+    @Getter
+    private final Tags tags;
+    private final Counter messagesReceived;
+    @Getter
+    private final IngestionMeters ingestion;
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    @Getter(AccessLevel.PACKAGE)
+    private final SeriesRecency recency;
+    private final ConcurrentHashMap<String, SeriesHandle> values = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, SeriesHandle>> indexedValues =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, SeriesHandle>> serialValues =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ComplexValue> complexValues = new ConcurrentHashMap<>();
+    private volatile boolean retired;
+
+    private record ComplexValue(byte[] raw, SeriesHandle[] handles) {
+    }
+
+    DeviceMeters(MeterHandles meterHandles, MeterRegistry meterRegistry, SeriesStore seriesStore, Device device,
+                 Tags tags) {
+        this.meterHandles = meterHandles;
+        this.recency = new SeriesRecency(seriesStore);
+        this.device = device;
+        this.tags = tags;
+        this.messagesReceived = Counter.builder("ecoflow_mqtt_messages_receive_total")
+                .tags(tags)
+                .register(meterRegistry);
+        this.ingestion = new IngestionMeters(meterRegistry, tags, meterHandles.getIngestionConfig());
+    }
+
+    Counter getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    public void messageReceived() {
+        messagesReceived.increment();
+    }
+
+    public int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    void markRetired() {
+        retired = true;
+    }
+
+    public void setValue(String name, double value) {
+        var handle = values.get(name);
+        if (handle == null || handle.isRemoved()) {
+            handle = resolve(values, name, handle,
+                    n -> meterHandles.register(this, PREFIX + n, tags, value));
+        }
+        update(handle, value);
+    }
+
+    public void setIndexedValue(String name, int index, double value) {
+        var byIndex = indexedValues.get(name);
+        if (byIndex == null) {
+            byIndex = indexedValues.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+        }
+        var handle = byIndex.get(index);
+        if (handle == null || handle.isRemoved()) {
+            handle = resolve(byIndex, index, handle,
+                    i -> meterHandles.register(this, PREFIX + name, tags.and("index", Integer.toString(i)), value));
+        }
+        update(handle, value);
+    }
+
+    public void setSerialValue(String name, String serial, double value) {
+        var bySerial = serialValues.get(name);
+        if (bySerial == null) {
+            bySerial = serialValues.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+        }
+        var handle = bySerial.get(serial);
+        if (handle == null || handle.isRemoved()) {
+            handle = resolve(bySerial, serial, handle,
+                    s -> meterHandles.register(this, PREFIX + name, tags.and("sn", s), value));
+        }
+        update(handle, value);
+    }
+
+    /**
+     * Series with tags beyond the device ones, produced by the {@code MetricsHandler} chain.
+     */
+    public SeriesHandle setTaggedValue(String metricName, Tags extraTags, double value) {
+        var handle = meterHandles.register(this, metricName, tags.and(extraTags), value);
+        update(handle, value);
+        return handle;
+    }
+
+    /**
+     * @return {@code true} if the complex value is the same as last time, its series were refreshed then
+     */
+    public boolean touchIfUnchanged(String name, byte[] payload, int offset, int length) {
+        if (!meterHandles.isSuppressUnchanged()) {
+            return false;
+        }
+        var last = complexValues.get(name);
+        boolean unchanged = last != null
+                && Arrays.equals(last.raw(), 0, last.raw().length, payload, offset, offset + length)
+                && Arrays.stream(last.handles()).noneMatch(SeriesHandle::isRemoved);
+        if (unchanged) {
+            for (SeriesHandle handle : last.handles()) {
+                meterHandles.touch(handle);
+            }
+        }
+        meterHandles.complexValueSeen(!unchanged);
+        return unchanged;
+    }
+
+    /**
+     * Remembers the raw value and the series it produced, unless a cap rejected one of them.
+     */
+    public void rememberComplexValue(String name, byte[] payload, int offset, int length,
+                                     List<SeriesHandle> handles) {
+        if (!meterHandles.isSuppressUnchanged()) {
+            return;
+        }
+        if (handles.contains(null)) {
+            complexValues.remove(name);
+        } else {
+            complexValues.put(name, new ComplexValue(Arrays.copyOfRange(payload, offset, offset + length),
+                    handles.toArray(SeriesHandle[]::new)));
+        }
+    }
+
+    /**
+     * Series of this device, including the slots reserved by registrations in progress.
+     */
+    AtomicInteger seriesCount() {
+        return seriesCount;
+    }
+
+    void forget(SeriesHandle handle) {
+        handle.removeFromSlot();
+    }
+
+    private void update(SeriesHandle handle, double value) {
+        if (handle != null) {
+            meterHandles.update(handle, value);
+        }
+    }
+
+    /**
+     * Registration may evict other series of this device, so it must not run inside a compute of these maps.
+     * {@link MeterHandles#register} returns the same handle for concurrent calls.
+     */
+    private static <K> SeriesHandle resolve(ConcurrentHashMap<K, SeriesHandle> map, K key, SeriesHandle stale,
+                                            Function<K, SeriesHandle> register) {
+        if (stale != null) {
+            map.remove(key, stale);
+        }
+        var handle = register.apply(key);
+        if (handle != null) {
+            handle.setSlot(map, key);
+            map.put(key, handle);
+        }
+        return handle;
+    }
+}
@@ -0,0 +1,152 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion meters of one device: time spent in each {@link Stage} of processing a quota message by its
+ * {@code typeCode}, parameters that could not be exported, and the lag of the last message behind its
+ * {@code time} field.
+ * <p>
+ * Stage times are summed per message by the caller and recorded once per stage and message, the timers of a
+ * {@code typeCode} are looked up in a small per-device map. Devices send a handful of type codes, the ones
+ * beyond {@link #MAX_TYPE_CODES} share the {@code other} timers.
+ */
+public class IngestionMeters {
+    public enum Stage {
+        /**
+         * JSON parsing, everything not covered by the other stages.
+         */
+        DECODE,
+        /**
+         * Metric name resolution of parameters and list elements.
+         */
+        NORMALIZE,
+        /**
+         * {@code MetricsHandler} dispatch of complex values.
+         */
+        DISPATCH,
+        /**
+         * Series updates, including the unchanged value checks.
+         */
+        UPDATE
+    }
+
+    public enum Unhandled {
+        /**
+         * The parameter does not make a valid Prometheus name.
+         */
+        INVALID_NAME,
+        /**
+         * No handler took the complex value.
+         */
+        NO_HANDLER
+    }
+
+    static final int MAX_TYPE_CODES = 32;
+    private static final String NO_TYPE_CODE = "none";
+    private static final String OTHER_TYPE_CODE = "other";
+    private static final Stage[] STAGES = Stage.values();
+
+    private final MeterRegistry meterRegistry;
+    private final Tags tags;
+    private final EcoflowProperties.Ingestion config;
+    private final ConcurrentHashMap<String, Timer[]> stageTimers = new ConcurrentHashMap<>();
+    private final Counter[] unhandled;
+    private final Queue<Meter> meters = new ConcurrentLinkedQueue<>();
+    private volatile double lagSeconds = Double.NaN;
+
+    IngestionMeters(MeterRegistry meterRegistry, Tags tags, EcoflowProperties.Ingestion config) {
+        this.meterRegistry = meterRegistry;
+        this.tags = tags;
+        this.config = config;
+        this.unhandled = new Counter[Unhandled.values().length];
+        for (Unhandled reason : Unhandled.values()) {
+            unhandled[reason.ordinal()] = add(Counter.builder("ecoflow_ingestion_unhandled_parameters_total")
+                    .tags(tags)
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        add(Gauge.builder("ecoflow_ingestion_lag_seconds", this, m -> m.lagSeconds)
+                .tags(tags)
+                .register(meterRegistry));
+    }
+
+    public boolean isStageTimersEnabled() {
+        return config.isStageTimers();
+    }
+
+    /**
+     * Records the nanoseconds a message spent in each stage, indexed by {@link Stage#ordinal()}.
+     */
+    public void record(String typeCode, long[] stageNanos) {
+        var timers = timers(typeCode == null ? NO_TYPE_CODE : typeCode);
+        for (int i = 0; i < timers.length; i++) {
+            timers[i].record(stageNanos[i], TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void unhandled(Unhandled reason) {
+        unhandled[reason.ordinal()].increment();
+    }
+
+    /**
+     * @param messageTime {@code time} of the message, in epoch milliseconds or seconds
+     */
+    public void processed(long messageTime) {
+        long messageMillis = messageTime < 100_000_000_000L ? messageTime * 1000 : messageTime;
+        lagSeconds = (System.currentTimeMillis() - messageMillis) / 1000.0;
+    }
+
+    /**
+     * Removes the meters of a retired device.
+     */
+    void remove() {
+        Meter meter;
+        while ((meter = meters.poll()) != null) {
+            meterRegistry.remove(meter);
+        }
+    }
+
+    private Timer[] timers(String typeCode) {
+        var timers = stageTimers.get(typeCode);
+        if (timers == null) {
+            var key = stageTimers.size() < MAX_TYPE_CODES ? typeCode : OTHER_TYPE_CODE;
+            timers = stageTimers.computeIfAbsent(key, this::register);
+        }
+        return timers;
+    }
+
+    private Timer[] register(String typeCode) {
+        var timers = new Timer[STAGES.length];
+        for (Stage stage : STAGES) {
+            var builder = Timer.builder("ecoflow_ingestion_stage_seconds")
+                    .tags(tags)
+                    .tag("type_code", typeCode)
+                    .tag("stage", stage.name().toLowerCase());
+            if (config.isHistogram()) {
+                builder.publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(1000))
+                        .maximumExpectedValue(Duration.ofMillis(100));
+            }
+            timers[stage.ordinal()] = add(builder.register(meterRegistry));
+        }
+        return timers;
+    }
+
+    private <T extends Meter> T add(T meter) {
+        meters.add(meter);
+        return meter;
+    }
+}
@@ -0,0 +1,406 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.mqtt.MetricCacheKey;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.atkach.ecoflow.utils.DeadlineWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns the exported series. A series gets a slot in the {@link SeriesStore} when it first appears and updates
+ * only write to the store. The {@link PrometheusTextWriter} exposes the series on {@code /metrics}; they are also
+ * registered in the {@link MeterRegistry} once, as gauges reading the store, for {@code /actuator/prometheus},
+ * unless {@code ecoflow.scrape.actuatorSeries} is off.
+ * <p>
+ * New series are subject to the global and per-device caps of {@code ecoflow.series}. A slot under both caps is
+ * reserved before the series is allocated, so concurrent registrations cannot exceed them, and
+ * {@link SeriesOverflowPolicy#EVICT_LEAST_RECENT} takes its victims from a {@link SeriesRecency} per cap.
+ * Series whose {@code ecoflow.series.ttl} is zero are pinned: they are rewritten only when their value changes
+ * ({@code ecoflow_online}), so they would always be the least recent, and are never evicted.
+ * <p>
+ * With {@code ecoflow.series.suppressUnchanged} an update with the value the series already has only refreshes
+ * its update time, so the store generation and with it the cached scrape stay valid.
+ */
+@Log4j2
+@Component
+public class MeterHandles {
+    /**
+     * Creates the timeout re-armed by every update of the series of a watched metric.
+     */
+    @FunctionalInterface
+    public interface SeriesWatcher {
+        DeadlineWheel.Timeout watch(MetricCacheKey key);
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final SeriesStore seriesStore;
+    private final EcoflowProperties.Series config;
+    private final EcoflowProperties.Ingestion ingestionConfig;
+    private final ConcurrentHashMap<String, DeviceMeters> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<MetricCacheKey, SeriesHandle> series = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SeriesWatcher> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MetricFamily> families = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> pinnedByName = new ConcurrentHashMap<>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final SeriesRecency recency;
+
+    private final Counter rejectedGlobal;
+    private final Counter rejectedDevice;
+    private final Counter evictedForCap;
+    private final boolean suppressUnchanged;
+    private final boolean actuatorSeries;
+    private final LongAdder seriesChanged = new LongAdder();
+    private final LongAdder seriesUnchanged = new LongAdder();
+    private final LongAdder complexChanged = new LongAdder();
+    private final LongAdder complexUnchanged = new LongAdder();
+
+    public MeterHandles(MeterRegistry meterRegistry, SeriesStore seriesStore, EcoflowProperties ecoflowProperties) {
+        this.meterRegistry = meterRegistry;
+        this.seriesStore = seriesStore;
+        this.config = ecoflowProperties.getSeries();
+        this.ingestionConfig = ecoflowProperties.getIngestion();
+        this.recency = new SeriesRecency(seriesStore);
+        Gauge.builder("ecoflow_metrics_cache_size", seriesStore, SeriesStore::size)
+                .register(meterRegistry);
+        this.rejectedGlobal = Counter.builder("ecoflow_series_rejected_total").tag("reason", "global_cap")
+                .register(meterRegistry);
+        this.rejectedDevice = Counter.builder("ecoflow_series_rejected_total").tag("reason", "device_cap")
+                .register(meterRegistry);
+        this.evictedForCap = Counter.builder("ecoflow_series_evicted_total").tag("reason", "cap")
+                .register(meterRegistry);
+        this.suppressUnchanged = config.isSuppressUnchanged();
+        this.actuatorSeries = ecoflowProperties.getScrape().isActuatorSeries();
+        registerUpdateCounter(meterRegistry, "series", "changed", seriesChanged);
+        registerUpdateCounter(meterRegistry, "series", "unchanged", seriesUnchanged);
+        registerUpdateCounter(meterRegistry, "complex", "changed", complexChanged);
+        registerUpdateCounter(meterRegistry, "complex", "unchanged", complexUnchanged);
+    }
+
+    private static void registerUpdateCounter(MeterRegistry meterRegistry, String kind, String result,
+                                              LongAdder adder) {
+        FunctionCounter.builder("ecoflow_value_updates_total", adder, LongAdder::sum)
+                .tag("kind", kind)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public DeviceMeters forDevice(Device device) {
+        var deviceMeters = devices.get(device.getSn());
+        if (deviceMeters == null) {
+            deviceMeters = devices.computeIfAbsent(device.getSn(),
+                    sn -> new DeviceMeters(this, meterRegistry, seriesStore, device, deviceTags(device)));
+        }
+        return deviceMeters;
+    }
+
+    /**
+     * Removes the series of a device which left the account: the ones it owns and the ones derived from it
+     * (e.g. {@code ecoflow_offgrid}), which carry all of its tags.
+     * <p>
+     * The retired {@link DeviceMeters} stay in place until the device is {@linkplain #admit admitted} again, so a
+     * pipeline worker still holding the device gets them from {@link #forDevice} and cannot recreate its series.
+     *
+     * @return number of removed series
+     */
+    public int retire(Device device) {
+        var deviceMeters = forDevice(device);
+        if (deviceMeters.isRetired()) {
+            return 0;
+        }
+        // before the scan, a registration racing with it either sees the flag or is seen by the scan
+        deviceMeters.markRetired();
+        int removed = 0;
+        for (SeriesHandle handle : series.values()) {
+            var owner = handle.getOwner();
+            boolean ofDevice = owner == deviceMeters
+                    || owner == null && hasAllTags(handle.getKey().getTags(), deviceMeters.getTags());
+            if (ofDevice && remove(handle)) {
+                removed++;
+            }
+        }
+        meterRegistry.remove(deviceMeters.getMessagesReceived());
+        deviceMeters.getIngestion().remove();
+        return removed;
+    }
+
+    /**
+     * Lets a device which was {@linkplain #retire retired} and came back export series again.
+     */
+    public void admit(Device device) {
+        devices.computeIfPresent(device.getSn(),
+                (sn, deviceMeters) -> deviceMeters.isRetired() ? null : deviceMeters);
+    }
+
+    public boolean isRetired(Device device) {
+        var deviceMeters = devices.get(device.getSn());
+        return deviceMeters != null && deviceMeters.isRetired();
+    }
+
+    private static boolean hasAllTags(Tags tags, Tags required) {
+        for (Tag tag : required) {
+            if (tags.stream().noneMatch(tag::equals)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies to series created afterwards, so watchers have to be set up before messages are processed.
+     */
+    public void watch(String metricName, SeriesWatcher watcher) {
+        watchers.put(metricName, watcher);
+    }
+
+    /**
+     * Slow path for series which are not bound to a {@link DeviceMeters} handle.
+     */
+    public void setValue(String metricName, Tags tags, double value) {
+        var handle = register(null, metricName, tags, value);
+        if (handle != null) {
+            update(handle, value);
+        }
+    }
+
+    /**
+     * Recreates a series from a snapshot with its original update time, so TTLs and watches count from the
+     * update before the restart. Has to run before messages are processed, it overwrites the current value.
+     *
+     * @param device owner of the series, {@code null} for series set through {@link #setValue}
+     * @param tags    all tags of the series, including the device ones
+     * @return {@code false} if a cap rejected the series
+     */
+    public boolean restore(Device device, String metricName, Tags tags, double value, long lastUpdateNanos) {
+        var owner = device != null ? forDevice(device) : null;
+        var handle = register(owner, metricName, tags, value);
+        if (handle == null) {
+            return false;
+        }
+        seriesStore.restore(handle.getId(), value, lastUpdateNanos);
+        handle.backdate(lastUpdateNanos);
+        return true;
+    }
+
+    /**
+     * Devices of all accounts share the store, in multi account mode their series carry the account.
+     */
+    private static Tags deviceTags(Device device) {
+        var tags = Tags.of("device", device.getName());
+        return device.getAccount() != null ? tags.and("account", device.getAccount()) : tags;
+    }
+
+    public Collection<SeriesHandle> getSeries() {
+        return series.values();
+    }
+
+    public Collection<MetricFamily> getFamilies() {
+        return families.values();
+    }
+
+    void update(SeriesHandle handle, double value) {
+        int id = handle.getId();
+        if (suppressUnchanged
+                && Double.doubleToRawLongBits(seriesStore.value(id)) == Double.doubleToRawLongBits(value)) {
+            seriesStore.touch(id);
+            seriesUnchanged.increment();
+        } else {
+            seriesStore.set(id, value);
+            seriesChanged.increment();
+        }
+        handle.touch();
+    }
+
+    /**
+     * Refreshes the series produced by an unchanged complex value instead of dispatching it again.
+     */
+    void touch(SeriesHandle handle) {
+        seriesStore.touch(handle.getId());
+        handle.touch();
+    }
+
+    EcoflowProperties.Ingestion getIngestionConfig() {
+        return ingestionConfig;
+    }
+
+    boolean isSuppressUnchanged() {
+        return suppressUnchanged;
+    }
+
+    void complexValueSeen(boolean changed) {
+        (changed ? complexChanged : complexUnchanged).increment();
+    }
+
+    /**
+     * @return handle of the series, {@code null} if a cap rejected it or its device is retired
+     */
+    SeriesHandle register(DeviceMeters owner, String metricName, Tags tags, double initialValue) {
+        if (owner != null && owner.isRetired()) {
+            return null;
+        }
+        var key = new MetricCacheKey(metricName, tags);
+        var handle = series.get(key);
+        if (handle == null) {
+            if (!reserve(owner)) {
+                return null;
+            }
+            var created = new SeriesHandle[1];
+            handle = series.computeIfAbsent(key, k -> {
+                int id = seriesStore.allocate(k, initialValue);
+                var gauge = actuatorSeries ? Gauge.builder(metricName, seriesStore, store -> store.value(id))
+                        .tags(tags)
+                        .register(meterRegistry) : null;
+                created[0] = new SeriesHandle(id, k, owner, gauge, isPinned(metricName));
+                return created[0];
+            });
+            if (created[0] == null) {
+                release(owner);
+            }
+            if (handle.claimInitialization()) {
+                // added even if removed meanwhile, every series counted by SeriesRecency.removed() is queued
+                if (!handle.isPinned()) {
+                    recency.add(handle);
+                    if (owner != null) {
+                        owner.getRecency().add(handle);
+                    }
+                }
+                var family = families.computeIfAbsent(metricName, MetricFamily::new);
+                family.getSeries().add(handle);
+                var watcher = watchers.get(metricName);
+                if (watcher != null) {
+                    handle.setWatch(watcher.watch(key));
+                }
+                if (handle.isRemoved()) {
+                    // evicted or retired since it was published, remove() may have run before the adds
+                    family.getSeries().remove(handle);
+                    handle.markRemoved();
+                }
+            }
+            if (owner != null && owner.isRetired()) {
+                // retired while registering, the scan of retire may have missed the new series
+                remove(handle);
+                return null;
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Deregisters the series and frees its slot in the store.
+     */
+    public boolean remove(SeriesHandle handle) {
+        if (!series.remove(handle.getKey(), handle)) {
+            return false;
+        }
+        handle.markRemoved();
+        var family = families.get(handle.getKey().getName());
+        if (family != null) {
+            family.getSeries().remove(handle);
+        }
+        release(handle.getOwner());
+        if (!handle.isPinned()) {
+            recency.removed();
+        }
+        if (handle.getOwner() != null) {
+            handle.getOwner().forget(handle);
+            if (!handle.isPinned()) {
+                handle.getOwner().getRecency().removed();
+            }
+        }
+        if (handle.getGauge() != null) {
+            meterRegistry.remove(handle.getGauge());
+        }
+        seriesStore.free(handle.getId());
+        return true;
+    }
+
+    /**
+     * Reserves a slot under the per-device and global caps, evicting for it if the policy allows.
+     */
+    private boolean reserve(DeviceMeters owner) {
+        var evict = config.getOverflowPolicy() == SeriesOverflowPolicy.EVICT_LEAST_RECENT;
+
+        if (owner != null) {
+            while (!tryReserve(owner.seriesCount(), config.getMaxSeriesPerDevice())) {
+                if (!evict || !evictLeastRecent(owner.getRecency())) {
+                    rejectedDevice.increment();
+                    return false;
+                }
+            }
+        }
+        while (!tryReserve(seriesCount, config.getMaxSeries())) {
+            if (!evict || !evictLeastRecent(recency)) {
+                if (owner != null) {
+                    owner.seriesCount().decrementAndGet();
+                }
+                rejectedGlobal.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the longest matching prefix in {@code ecoflow.series.ttl} keeps the metric forever, the same
+     * resolution as {@link SeriesLifecycle}. A zero {@code defaultTtl} does not pin, it would disable eviction.
+     */
+    private boolean isPinned(String metricName) {
+        var pinned = pinnedByName.get(metricName);
+        if (pinned == null) {
+            pinned = pinnedByName.computeIfAbsent(metricName, name -> {
+                String bestPrefix = null;
+                for (var entry : config.getTtl().entrySet()) {
+                    if (name.startsWith(entry.getKey())
+                            && (bestPrefix == null || entry.getKey().length() > bestPrefix.length())) {
+                        bestPrefix = entry.getKey();
+                    }
+                }
+                return bestPrefix != null && Duration.ZERO.equals(config.getTtl().get(bestPrefix));
+            });
+        }
+        return pinned;
+    }
+
+    private void release(DeviceMeters owner) {
+        seriesCount.decrementAndGet();
+        if (owner != null) {
+            owner.seriesCount().decrementAndGet();
+        }
+    }
+
+    private static boolean tryReserve(AtomicInteger count, int max) {
+        while (true) {
+            int current = count.get();
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean evictLeastRecent(SeriesRecency candidates) {
+        SeriesHandle oldest;
+        while ((oldest = candidates.pollLeastRecent()) != null) {
+            if (remove(oldest)) {
+                log.debug("Evicted series {} to stay within the series cap", oldest.getKey());
+                evictedForCap.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,25 @@
+package com.atkach.ecoflow.metrics;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Series sharing a metric name, kept together because the exposition format requires them to be contiguous.
+ */
+@Getter
+public class MetricFamily {
+    private final String name;
+    /**
+     * {@code # HELP} and {@code # TYPE} lines of the family.
+     */
+    private final byte[] header;
+    private final Set<SeriesHandle> series = ConcurrentHashMap.newKeySet();
+
+    MetricFamily(String name) {
+        this.name = name;
+        this.header = ("# HELP " + name + " \n# TYPE " + name + " gauge\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
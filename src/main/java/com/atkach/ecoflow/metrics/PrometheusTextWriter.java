@@ -0,0 +1,115 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.mqtt.MetricCacheKey;
+import io.micrometer.core.instrument.Tag;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the series of the {@link SeriesStore} in the Prometheus text format (optionally OpenMetrics), the
+ * {@code # HELP} and {@code # TYPE} lines of each family followed by the pre-encoded series prefixes and their
+ * values. The help text is empty, as it was for the Micrometer gauges these series used to be.
+ * Integral values are formatted without allocation.
+ */
+@Component
+public class PrometheusTextWriter {
+    public static final String CONTENT_TYPE_004 = "text/plain; version=0.0.4; charset=utf-8";
+    public static final String CONTENT_TYPE_OPENMETRICS = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POSITIVE_INFINITY = "+Inf".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEGATIVE_INFINITY = "-Inf".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EOF = "# EOF\n".getBytes(StandardCharsets.US_ASCII);
+    private static final double MAX_EXACT_LONG = 1L << 53;
+
+    private final MeterHandles meterHandles;
+    private final SeriesStore seriesStore;
+
+    public PrometheusTextWriter(MeterHandles meterHandles, SeriesStore seriesStore) {
+        this.meterHandles = meterHandles;
+        this.seriesStore = seriesStore;
+    }
+
+    public void write(OutputStream out, boolean openMetrics) throws IOException {
+        var digits = new byte[20];
+        for (MetricFamily family : meterHandles.getFamilies()) {
+            boolean headerWritten = false;
+            for (SeriesHandle handle : family.getSeries()) {
+                if (handle.isRemoved()) {
+                    family.getSeries().remove(handle);
+                    continue;
+                }
+                if (!headerWritten) {
+                    out.write(family.getHeader());
+                    headerWritten = true;
+                }
+                out.write(handle.getExposition());
+                writeValue(out, seriesStore.value(handle.getId()), digits);
+                out.write('\n');
+            }
+        }
+        if (openMetrics) {
+            out.write(EOF);
+        }
+    }
+
+    static byte[] encodeSeries(MetricCacheKey key) {
+        var sb = new StringBuilder(key.getName());
+        boolean first = true;
+        for (Tag tag : key.getTags()) {
+            sb.append(first ? '{' : ',').append(tag.getKey()).append("=\"");
+            escapeLabelValue(sb, tag.getValue());
+            sb.append('"');
+            first = false;
+        }
+        if (!first) {
+            sb.append('}');
+        }
+        sb.append(' ');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void escapeLabelValue(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    static void writeValue(OutputStream out, double value, byte[] digits) throws IOException {
+        if (Double.isNaN(value)) {
+            out.write(NAN);
+        } else if (Double.isInfinite(value)) {
+            out.write(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+        } else if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_LONG) {
+            writeLong(out, (long) value, digits);
+        } else {
+            out.write(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static void writeLong(OutputStream out, long value, byte[] digits) throws IOException {
+        if (value == 0) {
+            out.write('0');
+            return;
+        }
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int pos = digits.length;
+        while (value > 0) {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        out.write(digits, pos, digits.length - pos);
+    }
+}
@@ -0,0 +1,132 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rendered scrape bodies, reused while the {@link SeriesStore#generation()} is unchanged or for at least
+ * {@code ecoflow.scrape.minInterval}.
+ * <p>
+ * Concurrent scrapes of a stale body wait for a single render instead of rendering it each. The wait uses a
+ * {@link ReentrantLock} rather than a monitor, so virtual request threads do not pin their carrier.
+ */
+@Component
+public class ScrapeCache {
+    private static final int TEXT = 0;
+    private static final int OPENMETRICS = 1;
+
+    private final PrometheusTextWriter prometheusTextWriter;
+    private final SeriesStore seriesStore;
+    private final long minIntervalNanos;
+    private final boolean precompress;
+    private final AtomicReferenceArray<Rendered> rendered = new AtomicReferenceArray<>(2);
+    private final ReentrantLock[] renderLocks = {new ReentrantLock(), new ReentrantLock()};
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer renderTime;
+
+    public ScrapeCache(PrometheusTextWriter prometheusTextWriter, SeriesStore seriesStore,
+                       EcoflowProperties ecoflowProperties, MeterRegistry meterRegistry) {
+        this.prometheusTextWriter = prometheusTextWriter;
+        this.seriesStore = seriesStore;
+        this.minIntervalNanos = ecoflowProperties.getScrape().getMinInterval().toNanos();
+        this.precompress = ecoflowProperties.getScrape().isPrecompress();
+        this.hits = Counter.builder("ecoflow_scrape_cache_requests_total").tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ecoflow_scrape_cache_requests_total").tag("result", "miss")
+                .register(meterRegistry);
+        this.renderTime = Timer.builder("ecoflow_scrape_render_seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the exposition, gzip-compressed if {@code gzip} is set
+     */
+    public byte[] body(boolean openMetrics, boolean gzip) throws IOException {
+        int format = openMetrics ? OPENMETRICS : TEXT;
+        var cached = rendered.get(format);
+        if (cached != null && cached.isFresh(seriesStore.generation(), System.nanoTime())) {
+            hits.increment();
+            return cached.body(gzip);
+        }
+
+        var lock = renderLocks[format];
+        lock.lock();
+        try {
+            cached = rendered.get(format);
+            // read before rendering, writes racing with the render make the next scrape render again
+            long generation = seriesStore.generation();
+            long now = System.nanoTime();
+            if (cached != null && cached.isFresh(generation, now)) {
+                hits.increment();
+            } else {
+                misses.increment();
+                cached = render(openMetrics, generation, now, cached == null ? 8192 : cached.plain.length);
+                rendered.set(format, cached);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return cached.body(gzip);
+    }
+
+    private Rendered render(boolean openMetrics, long generation, long now, int sizeHint) throws IOException {
+        var out = new ByteArrayOutputStream(sizeHint);
+        prometheusTextWriter.write(out, openMetrics);
+        var plain = out.toByteArray();
+        var result = new Rendered(generation, now, plain);
+        if (precompress) {
+            result.gzipped = gzip(plain);
+        }
+        renderTime.record(System.nanoTime() - now, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private static byte[] gzip(byte[] plain) throws IOException {
+        var out = new ByteArrayOutputStream(Math.max(plain.length / 8, 512));
+        try (var gzip = new GZIPOutputStream(out, 8192)) {
+            gzip.write(plain);
+        }
+        return out.toByteArray();
+    }
+
+    private final class Rendered {
+        private final long generation;
+        private final long renderedNanos;
+        private final byte[] plain;
+        private volatile byte[] gzipped;
+
+        private Rendered(long generation, long renderedNanos, byte[] plain) {
+            this.generation = generation;
+            this.renderedNanos = renderedNanos;
+            this.plain = plain;
+        }
+
+        boolean isFresh(long currentGeneration, long now) {
+            return generation == currentGeneration || now - renderedNanos < minIntervalNanos;
+        }
+
+        byte[] body(boolean gzip) throws IOException {
+            if (!gzip) {
+                return plain;
+            }
+            var gzipped = this.gzipped;
+            if (gzipped == null) {
+                gzipped = ScrapeCache.gzip(plain);
+                this.gzipped = gzipped;
+            }
+            return gzipped;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.mqtt.MetricCacheKey;
+import com.atkach.ecoflow.utils.DeadlineWheel;
+import io.micrometer.core.instrument.Meter;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolved series: its id in the {@link SeriesStore}, the registered gauge (unless
+ * {@code ecoflow.scrape.actuatorSeries} is off), the {@link DeviceMeters} it belongs to (if any) and an optional
+ * timeout re-armed on every update. A pinned series is never evicted for a cap.
+ */
+@Getter
+public class SeriesHandle {
+    private final int id;
+    private final MetricCacheKey key;
+    private final DeviceMeters owner;
+    private final Meter gauge;
+    private final boolean pinned;
+    private volatile DeadlineWheel.Timeout watch;
+    private volatile boolean removed;
+    private volatile byte[] exposition;
+    private final AtomicBoolean initialized = new AtomicBoolean();
+    /**
+     * Where the owner keeps the handle, so it is forgotten without scanning the owner's maps.
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile Slot slot;
+
+    private record Slot(Map<?, SeriesHandle> map, Object key) {
+    }
+
+    SeriesHandle(int id, MetricCacheKey key, DeviceMeters owner, Meter gauge, boolean pinned) {
+        this.id = id;
+        this.key = key;
+        this.owner = owner;
+        this.gauge = gauge;
+        this.pinned = pinned;
+    }
+
+    /**
+     * @return {@code true} for exactly one caller, which then finishes the set-up outside of map locks
+     */
+    boolean claimInitialization() {
+        return initialized.compareAndSet(false, true);
+    }
+
+    void setWatch(DeadlineWheel.Timeout watch) {
+        this.watch = watch;
+    }
+
+    /**
+     * Pre-encoded {@code name{labels} } prefix of the series' exposition line.
+     */
+    byte[] getExposition() {
+        var exposition = this.exposition;
+        if (exposition == null) {
+            exposition = PrometheusTextWriter.encodeSeries(key);
+            this.exposition = exposition;
+        }
+        return exposition;
+    }
+
+    void touch() {
+        var watch = this.watch;
+        if (watch != null) {
+            watch.touch();
+        }
+    }
+
+    void backdate(long lastUpdateNanos) {
+        var watch = this.watch;
+        if (watch != null) {
+            watch.backdate(lastUpdateNanos);
+        }
+    }
+
+    <K> void setSlot(Map<K, SeriesHandle> map, K key) {
+        this.slot = new Slot(map, key);
+    }
+
+    void removeFromSlot() {
+        var slot = this.slot;
+        if (slot != null) {
+            slot.map().remove(slot.key(), this);
+        }
+    }
+
+    void markRemoved() {
+        removed = true;
+        var watch = this.watch;
+        if (watch != null) {
+            watch.cancel();
+        }
+    }
+}
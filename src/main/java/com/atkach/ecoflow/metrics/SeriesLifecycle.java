@@ -0,0 +1,84 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evicts series which were not updated within the TTL of their metric family.
+ * <p>
+ * The TTL of a metric is the one of the longest matching name prefix in {@code ecoflow.series.ttl}, or
+ * {@code ecoflow.series.defaultTtl}. A zero TTL keeps the series forever.
+ */
+@Log4j2
+@Component
+public class SeriesLifecycle {
+    private final MeterHandles meterHandles;
+    private final SeriesStore seriesStore;
+    private final EcoflowProperties.Series config;
+    private final ConcurrentHashMap<String, Long> ttlNanosByName = new ConcurrentHashMap<>();
+    private final Counter evictedStale;
+
+    public SeriesLifecycle(MeterHandles meterHandles, SeriesStore seriesStore, EcoflowProperties ecoflowProperties,
+                           MeterRegistry meterRegistry) {
+        this.meterHandles = meterHandles;
+        this.seriesStore = seriesStore;
+        this.config = ecoflowProperties.getSeries();
+        this.evictedStale = Counter.builder("ecoflow_series_evicted_total").tag("reason", "stale")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${ecoflow.series.sweepInterval:PT1m}")
+    public void evictStaleSeries() {
+        seriesStore.releaseFreedIds();
+
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (SeriesHandle handle : meterHandles.getSeries()) {
+            if (isExpired(handle.getKey().getName(), seriesStore.lastUpdateNanos(handle.getId()), now)
+                    && meterHandles.remove(handle)) {
+                evicted++;
+            }
+        }
+
+        if (evicted > 0) {
+            evictedStale.increment(evicted);
+            log.info("Evicted {} stale series", evicted);
+        }
+    }
+
+    /**
+     * Whether a series last updated at {@code lastUpdateNanos} is past its TTL.
+     */
+    boolean isExpired(String metricName, long lastUpdateNanos, long now) {
+        long ttl = ttlNanos(metricName);
+        return ttl > 0 && now - lastUpdateNanos > ttl;
+    }
+
+    private long ttlNanos(String metricName) {
+        var ttl = ttlNanosByName.get(metricName);
+        if (ttl == null) {
+            ttl = ttlNanosByName.computeIfAbsent(metricName, this::resolveTtl);
+        }
+        return ttl;
+    }
+
+    private long resolveTtl(String metricName) {
+        String bestPrefix = null;
+        Duration ttl = config.getDefaultTtl();
+        for (var entry : config.getTtl().entrySet()) {
+            if (metricName.startsWith(entry.getKey())
+                    && (bestPrefix == null || entry.getKey().length() > bestPrefix.length())) {
+                bestPrefix = entry.getKey();
+                ttl = entry.getValue();
+            }
+        }
+        return ttl == null ? 0 : ttl.toNanos();
+    }
+}
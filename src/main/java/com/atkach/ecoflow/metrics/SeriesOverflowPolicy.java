@@ -0,0 +1,15 @@
+package com.atkach.ecoflow.metrics;
+
+/**
+ * What happens to a new series once the global or per-device series cap is reached.
+ */
+public enum SeriesOverflowPolicy {
+    /**
+     * The new series is not created, its updates are dropped.
+     */
+    REJECT_NEW,
+    /**
+     * The least recently updated series of the device (or of all devices for the global cap) is evicted.
+     */
+    EVICT_LEAST_RECENT
+}
@@ -0,0 +1,92 @@
+package com.atkach.ecoflow.metrics;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Series of a cap (all series, or the ones of a device) ordered by update time, to find the least recently
+ * updated one without scanning.
+ * <p>
+ * Updates do not touch the heap: an entry keeps the update time it was queued with, and a polled entry whose
+ * series was updated since is queued again with its current update time. Removed series are dropped when
+ * polled, or all at once when they make up half of the heap.
+ */
+class SeriesRecency {
+    private static final int MIN_PURGE = 64;
+
+    private record Entry(SeriesHandle handle, long updateNanos) {
+    }
+
+    private final SeriesStore seriesStore;
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private final PriorityQueue<Entry> heap =
+            new PriorityQueue<>((a, b) -> Long.compare(a.updateNanos() - b.updateNanos(), 0));
+    private int removed;
+
+    SeriesRecency(SeriesStore seriesStore) {
+        this.seriesStore = seriesStore;
+    }
+
+    void add(SeriesHandle handle) {
+        lock.lock();
+        try {
+            heap.add(new Entry(handle, seriesStore.lastUpdateNanos(handle.getId())));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called for every removed series which was added.
+     */
+    void removed() {
+        lock.lock();
+        try {
+            removed++;
+            if (removed >= MIN_PURGE && removed * 2 >= heap.size()) {
+                heap.removeIf(entry -> entry.handle().isRemoved());
+                removed = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the least recently updated series off the heap.
+     *
+     * @return {@code null} if there is no series left
+     */
+    SeriesHandle pollLeastRecent() {
+        lock.lock();
+        try {
+            Entry entry;
+            while ((entry = heap.poll()) != null) {
+                var handle = entry.handle();
+                if (handle.isRemoved()) {
+                    removed = Math.max(0, removed - 1);
+                    continue;
+                }
+                long update = seriesStore.lastUpdateNanos(handle.getId());
+                if (update != entry.updateNanos()) {
+                    heap.add(new Entry(handle, update));
+                    continue;
+                }
+                return handle;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return heap.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.EcoflowAccounts;
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the series to {@code ecoflow.snapshot.path} every {@code ecoflow.snapshot.interval} and on shutdown,
+ * and restores them on startup, so a restart does not leave gaps until every device sent a full quota message.
+ * <p>
+ * Update times are stored as wall clock time and restored as their age, TTLs and watches (e.g. the offgrid
+ * timeout of the AC input) count from the update before the restart. Series already past their TTL are not
+ * restored, neither are series of devices which are no longer in {@link EcoflowAccounts#getDevices()}, i.e. left
+ * the account or belong to another shard now: nothing would update or retire them, and series without a TTL like
+ * {@code online} would stay forever. Watches are set up by {@code DeviceTimeouts}, so it is created first; the
+ * subscriber depends on this bean, so restored values never overwrite received ones.
+ * <p>
+ * The file is a header followed by one record per series. Strings are written once and referenced by their
+ * index afterwards, device names and tag keys repeat a lot. The file is written to a temporary file through a
+ * direct buffer and moved over the previous one, and read through a memory mapping.
+ */
+@Log4j2
+@Component
+@DependsOn("deviceTimeouts")
+public class SeriesSnapshot {
+    private static final int MAGIC = 0x45465353;
+    private static final int VERSION = 1;
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+    private static final int HAS_DEVICE = 1;
+    private static final int HAS_ACCOUNT = 2;
+
+    private final MeterHandles meterHandles;
+    private final SeriesStore seriesStore;
+    private final SeriesLifecycle seriesLifecycle;
+    private final Path path;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final Timer writeTime;
+    private final Timer restoreTime;
+    private final Counter restored;
+    private final Counter expired;
+    private final Counter rejected;
+    private final Counter unknownDevice;
+
+    @Autowired
+    public SeriesSnapshot(MeterHandles meterHandles, SeriesStore seriesStore, SeriesLifecycle seriesLifecycle,
+                          EcoflowAccounts ecoflowAccounts, EcoflowProperties ecoflowProperties,
+                          MeterRegistry meterRegistry) {
+        this(meterHandles, seriesStore, seriesLifecycle, ecoflowAccounts.getDevices(), ecoflowProperties,
+                meterRegistry);
+    }
+
+    /**
+     * @param devices devices of this replica, series of other devices are not restored
+     */
+    public SeriesSnapshot(MeterHandles meterHandles, SeriesStore seriesStore, SeriesLifecycle seriesLifecycle,
+                          Collection<Device> devices, EcoflowProperties ecoflowProperties,
+                          MeterRegistry meterRegistry) {
+        this.meterHandles = meterHandles;
+        this.seriesStore = seriesStore;
+        this.seriesLifecycle = seriesLifecycle;
+        var configuredPath = ecoflowProperties.getSnapshot().getPath();
+        this.path = StringUtils.isBlank(configuredPath) ? null : Path.of(configuredPath);
+
+        this.writeTime = Timer.builder("ecoflow_snapshot_write_seconds")
+                .register(meterRegistry);
+        this.restoreTime = Timer.builder("ecoflow_snapshot_restore_seconds")
+                .register(meterRegistry);
+        this.restored = Counter.builder("ecoflow_snapshot_restored_series_total").tag("result", "restored")
+                .register(meterRegistry);
+        this.expired = Counter.builder("ecoflow_snapshot_restored_series_total").tag("result", "expired")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ecoflow_snapshot_restored_series_total").tag("result", "rejected")
+                .register(meterRegistry);
+        this.unknownDevice = Counter.builder("ecoflow_snapshot_restored_series_total")
+                .tag("result", "unknown_device")
+                .register(meterRegistry);
+
+        if (path != null) {
+            restore(devices);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ecoflow.snapshot.interval:PT1m}",
+            initialDelayString = "${ecoflow.snapshot.interval:PT1m}")
+    public void scheduledWrite() {
+        if (path != null) {
+            try {
+                write();
+            } catch (IOException e) {
+                log.error("Could not write snapshot " + path, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduledWrite();
+    }
+
+    /**
+     * @return number of series written
+     */
+    int write() throws IOException {
+        writeLock.lock();
+        try {
+            long start = System.nanoTime();
+            var parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            var temp = path.resolveSibling(path.getFileName() + ".tmp");
+            int count;
+            try (var writer = new Writer(FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                count = writeSeries(writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("Wrote {} series to {}", count, path);
+            return count;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private int writeSeries(Writer writer) throws IOException {
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        writer.putInt(MAGIC);
+        writer.putInt(VERSION);
+        writer.putLong(nowMillis);
+
+        int count = 0;
+        for (SeriesHandle handle : meterHandles.getSeries()) {
+            int id = handle.getId();
+            double value = seriesStore.value(id);
+            long lastUpdateNanos = seriesStore.lastUpdateNanos(id);
+            // removed since, the id may already belong to another series
+            if (handle.isRemoved() || seriesStore.key(id) != handle.getKey()) {
+                continue;
+            }
+
+            var device = handle.getOwner() != null ? handle.getOwner().getDevice() : null;
+            writer.putByte(RECORD);
+            int flags = (device != null ? HAS_DEVICE : 0)
+                    | (device != null && device.getAccount() != null ? HAS_ACCOUNT : 0);
+            writer.putByte(flags);
+            if (device != null) {
+                writer.putString(device.getSn());
+                writer.putString(device.getName());
+                if (device.getAccount() != null) {
+                    writer.putString(device.getAccount());
+                }
+            }
+            writer.putString(handle.getKey().getName());
+            var tags = handle.getKey().getTags();
+            writer.putVarInt((int) tags.stream().count());
+            for (Tag tag : tags) {
+                writer.putString(tag.getKey());
+                writer.putString(tag.getValue());
+            }
+            writer.putDouble(value);
+            writer.putLong(nowMillis - (nowNanos - lastUpdateNanos) / 1_000_000);
+            count++;
+        }
+        writer.putByte(END);
+        return count;
+    }
+
+    /**
+     * @return number of series restored
+     */
+    int restore(Collection<Device> devices) {
+        if (!Files.isRegularFile(path)) {
+            log.info("No snapshot at {}, starting empty", path);
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var reader = new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (reader.buffer.getInt() != MAGIC || reader.buffer.getInt() != VERSION) {
+                log.warn("Ignoring snapshot {} of an unknown format", path);
+                return 0;
+            }
+            reader.buffer.getLong();
+
+            var devicesBySn = new HashMap<String, Device>();
+            devices.forEach(d -> devicesBySn.put(d.getSn(), d));
+            long nowNanos = System.nanoTime();
+            long nowMillis = System.currentTimeMillis();
+            while (reader.buffer.get() == RECORD) {
+                int flags = reader.buffer.get();
+                Device device = null;
+                if ((flags & HAS_DEVICE) != 0) {
+                    var sn = reader.getString();
+                    var deviceName = reader.getString();
+                    var account = (flags & HAS_ACCOUNT) != 0 ? reader.getString() : null;
+                    device = new Device(deviceName, sn, account);
+                }
+                var name = reader.getString();
+                int tagCount = reader.getVarInt();
+                var tags = new ArrayList<Tag>(tagCount);
+                for (int i = 0; i < tagCount; i++) {
+                    tags.add(Tag.of(reader.getString(), reader.getString()));
+                }
+                double value = reader.buffer.getDouble();
+                long ageNanos = Math.max(0, nowMillis - reader.buffer.getLong()) * 1_000_000;
+                long lastUpdateNanos = nowNanos - ageNanos;
+
+                if (device != null ? !device.equals(devicesBySn.get(device.getSn()))
+                        : !ofKnownDevice(tags, devices)) {
+                    unknownDevice.increment();
+                } else if (seriesLifecycle.isExpired(name, lastUpdateNanos, nowNanos)) {
+                    expired.increment();
+                } else if (meterHandles.restore(device, name, Tags.of(tags), value, lastUpdateNanos)) {
+                    restored.increment();
+                    count++;
+                } else {
+                    rejected.increment();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // BufferUnderflowException and friends of a truncated file, keep what was read
+            log.warn("Could not read snapshot " + path + " completely, restored " + count + " series", e);
+        }
+        restoreTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.info("Restored {} series from {} in {} ms", count, path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return count;
+    }
+
+    /**
+     * Series without an owner are derived from a device if they carry its tags, e.g. {@code ecoflow_offgrid}.
+     */
+    private static boolean ofKnownDevice(List<Tag> tags, Collection<Device> devices) {
+        String deviceName = null;
+        String account = null;
+        for (Tag tag : tags) {
+            if (tag.getKey().equals("device")) {
+                deviceName = tag.getValue();
+            } else if (tag.getKey().equals("account")) {
+                account = tag.getValue();
+            }
+        }
+        if (deviceName == null) {
+            return true;
+        }
+        for (Device device : devices) {
+            if (device.getName().equals(deviceName) && (account == null || account.equals(device.getAccount()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Buffered writes to a channel, strings go through the string table.
+     */
+    private static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1).put((byte) value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(Double.BYTES).putDouble(value);
+        }
+
+        void putVarInt(int value) throws IOException {
+            var buffer = ensure(5);
+            while ((value & ~0x7f) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        /**
+         * The index of a known string, or the next index followed by the UTF-8 bytes of a new one.
+         */
+        void putString(String value) throws IOException {
+            var index = strings.get(value);
+            if (index != null) {
+                putVarInt(index);
+                return;
+            }
+            index = strings.size();
+            strings.put(value, index);
+            putVarInt(index);
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length);
+            ensure(bytes.length).put(bytes);
+        }
+
+        private ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocateDirect(bytes);
+                }
+            }
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int getVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint at " + buffer.position());
+        }
+
+        String getString() {
+            int index = getVarInt();
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            if (index != strings.size()) {
+                throw new IllegalStateException("Unknown string " + index + " at " + buffer.position());
+            }
+            var bytes = new byte[getVarInt()];
+            buffer.get(bytes);
+            var value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
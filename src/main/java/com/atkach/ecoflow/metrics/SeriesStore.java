@@ -0,0 +1,186 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.mqtt.MetricCacheKey;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Columnar storage of the exported series.
+ * <p>
+ * Every series gets an integer id, its value and last update time (monotonic {@link System#nanoTime()})
+ * live in primitive arrays allocated in chunks. Updating a series writes two array slots and allocates nothing.
+ * <p>
+ * Freed ids are quarantined until the next {@link #releaseFreedIds()}, so a late write through a stale handle
+ * cannot land in a series which reused the id.
+ * <p>
+ * Every write bumps the {@link #generation()}, an unchanged generation means an unchanged exposition.
+ */
+@Component
+public class SeriesStore {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final VarHandle DOUBLES = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(MetricCacheKey[].class);
+
+    @FunctionalInterface
+    public interface SeriesVisitor {
+        void visit(int id, MetricCacheKey key, double value, long lastUpdateNanos);
+    }
+
+    @FunctionalInterface
+    public interface SeriesWalker {
+        /**
+         * @return {@code false} to stop after this series
+         */
+        boolean visit(int id, MetricCacheKey key, double value, long lastUpdateNanos);
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final long startEpochMillis = System.currentTimeMillis();
+    private final LongAdder generation = new LongAdder();
+
+    private volatile MetricCacheKey[][] keys = new MetricCacheKey[0][];
+    private volatile double[][] values = new double[0][];
+    private volatile long[][] updateTimes = new long[0][];
+    private int nextId;
+    private int live;
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private final ArrayDeque<Integer> quarantinedIds = new ArrayDeque<>();
+
+    public void set(int id, double value) {
+        DOUBLES.setRelease(values[id >>> CHUNK_BITS], id & CHUNK_MASK, value);
+        LONGS.setRelease(updateTimes[id >>> CHUNK_BITS], id & CHUNK_MASK, System.nanoTime());
+        generation.increment();
+    }
+
+    /**
+     * Marks the series as updated without changing its value, the generation stays the same.
+     */
+    public void touch(int id) {
+        LONGS.setRelease(updateTimes[id >>> CHUNK_BITS], id & CHUNK_MASK, System.nanoTime());
+    }
+
+    /**
+     * Sets value and update time of a series restored from a snapshot.
+     */
+    public void restore(int id, double value, long lastUpdateNanos) {
+        DOUBLES.setRelease(values[id >>> CHUNK_BITS], id & CHUNK_MASK, value);
+        LONGS.setRelease(updateTimes[id >>> CHUNK_BITS], id & CHUNK_MASK, lastUpdateNanos);
+        generation.increment();
+    }
+
+    public double value(int id) {
+        return (double) DOUBLES.getAcquire(values[id >>> CHUNK_BITS], id & CHUNK_MASK);
+    }
+
+    public long lastUpdateNanos(int id) {
+        return (long) LONGS.getAcquire(updateTimes[id >>> CHUNK_BITS], id & CHUNK_MASK);
+    }
+
+    public MetricCacheKey key(int id) {
+        return (MetricCacheKey) KEYS.getAcquire(keys[id >>> CHUNK_BITS], id & CHUNK_MASK);
+    }
+
+    /**
+     * Number of writes so far, it only grows.
+     */
+    public long generation() {
+        return generation.sum();
+    }
+
+    public synchronized int size() {
+        return live;
+    }
+
+    /**
+     * Wall clock time of a {@link System#nanoTime()} reading, for display only.
+     */
+    public long toEpochMillis(long nanos) {
+        return startEpochMillis + (nanos - startNanos) / 1_000_000;
+    }
+
+    public void forEach(SeriesVisitor visitor) {
+        var keys = this.keys;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            var chunkKeys = keys[chunk];
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                var key = (MetricCacheKey) KEYS.getAcquire(chunkKeys, i);
+                if (key != null) {
+                    int id = (chunk << CHUNK_BITS) | i;
+                    visitor.visit(id, key, value(id), lastUpdateNanos(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the series from {@code fromId} on, in id order, until the walker stops.
+     *
+     * @return id to continue from, {@code -1} if all series were visited
+     */
+    public int walk(int fromId, SeriesWalker walker) {
+        var keys = this.keys;
+        int end = keys.length << CHUNK_BITS;
+        for (int id = Math.max(0, fromId); id < end; id++) {
+            var key = (MetricCacheKey) KEYS.getAcquire(keys[id >>> CHUNK_BITS], id & CHUNK_MASK);
+            if (key != null && !walker.visit(id, key, value(id), lastUpdateNanos(id))) {
+                return id + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Callers make sure a key is allocated only once, see {@link MeterHandles}.
+     */
+    public synchronized int allocate(MetricCacheKey key, double initialValue) {
+        var freeId = freeIds.poll();
+        int id = freeId != null ? freeId : nextId++;
+        int chunk = id >>> CHUNK_BITS;
+        if (chunk == values.length) {
+            grow();
+        }
+        live++;
+        DOUBLES.setRelease(values[chunk], id & CHUNK_MASK, initialValue);
+        LONGS.setRelease(updateTimes[chunk], id & CHUNK_MASK, System.nanoTime());
+        KEYS.setRelease(keys[chunk], id & CHUNK_MASK, key);
+        generation.increment();
+        return id;
+    }
+
+    public synchronized void free(int id) {
+        KEYS.setRelease(keys[id >>> CHUNK_BITS], id & CHUNK_MASK, null);
+        quarantinedIds.add(id);
+        live--;
+        generation.increment();
+    }
+
+    /**
+     * Makes ids freed before this call available for reuse.
+     */
+    public synchronized void releaseFreedIds() {
+        freeIds.addAll(quarantinedIds);
+        quarantinedIds.clear();
+    }
+
+    private void grow() {
+        int chunks = values.length + 1;
+        var newKeys = Arrays.copyOf(keys, chunks);
+        var newValues = Arrays.copyOf(values, chunks);
+        var newTimes = Arrays.copyOf(updateTimes, chunks);
+        newKeys[chunks - 1] = new MetricCacheKey[CHUNK_SIZE];
+        newValues[chunks - 1] = new double[CHUNK_SIZE];
+        newTimes[chunks - 1] = new long[CHUNK_SIZE];
+        values = newValues;
+        updateTimes = newTimes;
+        keys = newKeys;
+    }
+}
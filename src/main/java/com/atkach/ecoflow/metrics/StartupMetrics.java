@@ -0,0 +1,35 @@
+package com.atkach.ecoflow.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Time from JVM start to the first processed MQTT message, {@code NaN} until then.
+ */
+@Log4j2
+@Component
+public class StartupMetrics {
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final AtomicBoolean firstMessage = new AtomicBoolean();
+    private volatile double timeToFirstMessageSeconds = Double.NaN;
+
+    public StartupMetrics(MeterRegistry meterRegistry) {
+        Gauge.builder("ecoflow_time_to_first_metric_seconds", this, m -> m.timeToFirstMessageSeconds)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Called for every processed message, only the first one does more than a volatile read.
+     */
+    public void messageProcessed() {
+        if (Double.isNaN(timeToFirstMessageSeconds) && firstMessage.compareAndSet(false, true)) {
+            timeToFirstMessageSeconds = (System.currentTimeMillis() - jvmStartMillis) / 1000.0;
+            log.info("First message processed {}s after start", timeToFirstMessageSeconds);
+        }
+    }
+}
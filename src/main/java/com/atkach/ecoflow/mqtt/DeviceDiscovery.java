@@ -0,0 +1,105 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.api.DeviceChanges;
+import com.atkach.ecoflow.api.EcoflowAccounts;
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.MeterHandles;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Refreshes the device lists every {@code ecoflow.discoveryInterval}. New devices are subscribed and tracked,
+ * removed ones unsubscribed, untracked and their series retired.
+ */
+@Log4j2
+@Component
+@DependsOn("mqttSubscriber")
+public class DeviceDiscovery {
+    private final EcoflowAccounts ecoflowAccounts;
+    private final MeterHandles meterHandles;
+    private final DeviceTimeouts deviceTimeouts;
+    private final Duration interval;
+    private final ScheduledFuture<?> schedule;
+
+    private final Counter runsSucceeded;
+    private final Counter runsFailed;
+    private final Counter devicesAdded;
+    private final Counter devicesRemoved;
+    private final Counter seriesRetired;
+
+    public DeviceDiscovery(EcoflowAccounts ecoflowAccounts, MeterHandles meterHandles, DeviceTimeouts deviceTimeouts,
+                           EcoflowProperties ecoflowProperties, MeterRegistry meterRegistry,
+                           TaskScheduler taskScheduler) {
+        this.ecoflowAccounts = ecoflowAccounts;
+        this.meterHandles = meterHandles;
+        this.deviceTimeouts = deviceTimeouts;
+        this.interval = ecoflowProperties.getDiscoveryInterval();
+
+        Gauge.builder("ecoflow_discovery_interval_seconds", interval, i -> i.toMillis() / 1000.0)
+                .register(meterRegistry);
+        this.runsSucceeded = Counter.builder("ecoflow_discovery_runs_total").tag("result", "success")
+                .register(meterRegistry);
+        this.runsFailed = Counter.builder("ecoflow_discovery_runs_total").tag("result", "failure")
+                .register(meterRegistry);
+        this.devicesAdded = Counter.builder("ecoflow_discovery_devices_total").tag("change", "added")
+                .register(meterRegistry);
+        this.devicesRemoved = Counter.builder("ecoflow_discovery_devices_total").tag("change", "removed")
+                .register(meterRegistry);
+        this.seriesRetired = Counter.builder("ecoflow_series_evicted_total").tag("reason", "device_removed")
+                .register(meterRegistry);
+        this.schedule = schedule(taskScheduler);
+    }
+
+    /**
+     * Scheduled here rather than with {@code @Scheduled}, which would run a zero interval in a loop.
+     */
+    private ScheduledFuture<?> schedule(TaskScheduler taskScheduler) {
+        if (interval.isZero() || interval.isNegative()) {
+            log.info("Device discovery is disabled");
+            return null;
+        }
+        return taskScheduler.scheduleWithFixedDelay(this::discover, Instant.now().plus(interval), interval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (schedule != null) {
+            schedule.cancel(false);
+        }
+    }
+
+    public void discover() {
+        var changesByAccount = ecoflowAccounts.discover();
+        runsSucceeded.increment(changesByAccount.size());
+        runsFailed.increment(ecoflowAccounts.getClients().size() - changesByAccount.size());
+        changesByAccount.values().forEach(this::apply);
+    }
+
+    private void apply(DeviceChanges changes) {
+        for (Device device : changes.removed()) {
+            // retired first, messages still in the pipeline can then neither track it nor recreate its series
+            int retired = meterHandles.retire(device);
+            deviceTimeouts.forget(device);
+            seriesRetired.increment(retired);
+            devicesRemoved.increment();
+            log.info("Device '{}' with sn '{}' was removed, retired {} series", device.getName(), device.getSn(),
+                    retired);
+        }
+        for (Device device : changes.added()) {
+            meterHandles.admit(device);
+            deviceTimeouts.track(device);
+            devicesAdded.increment();
+        }
+    }
+}
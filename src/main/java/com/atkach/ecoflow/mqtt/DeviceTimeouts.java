@@ -0,0 +1,99 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.MeterHandles;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.atkach.ecoflow.utils.DeadlineWheel;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains {@code ecoflow_online} per device and {@code ecoflow_offgrid} per AC input voltage series.
+ * Both flip when the corresponding deadline expires or when the next update arrives after expiry.
+ */
+@Log4j2
+@Component
+public class DeviceTimeouts {
+    static final String AC_IN_METRIC = "ecoflow_inv_status_ac_in_vol";
+    private static final int WHEEL_SIZE = 512;
+
+    private final EcoflowProperties ecoflowProperties;
+    private final MeterHandles meterHandles;
+    private final DeadlineWheel wheel;
+    private final ConcurrentHashMap<String, DeadlineWheel.Timeout> devices = new ConcurrentHashMap<>();
+
+    public DeviceTimeouts(EcoflowProperties ecoflowProperties, MeterHandles meterHandles) {
+        this.ecoflowProperties = ecoflowProperties;
+        this.meterHandles = meterHandles;
+        this.wheel = new DeadlineWheel(ecoflowProperties.getTimeoutResolution(), WHEEL_SIZE);
+        meterHandles.watch(AC_IN_METRIC, key -> {
+            meterHandles.setValue("ecoflow_offgrid", key.getTags(), 0);
+            return wheel.newTimeout(ecoflowProperties.getOffgridTimeout(), new DeadlineWheel.Listener() {
+                @Override
+                public void onExpired() {
+                    meterHandles.setValue("ecoflow_offgrid", key.getTags(), 1);
+                }
+
+                @Override
+                public void onRevived() {
+                    meterHandles.setValue("ecoflow_offgrid", key.getTags(), 0);
+                }
+            });
+        });
+        wheel.start();
+    }
+
+    /**
+     * Starts tracking a device, it is reported online until the offline timeout passes without a message.
+     * A device retired in {@link MeterHandles} is not tracked, its timeout is cancelled right away.
+     */
+    public DeadlineWheel.Timeout track(Device device) {
+        var timeout = devices.get(device.getSn());
+        if (timeout == null) {
+            timeout = devices.computeIfAbsent(device.getSn(), sn -> {
+                meterHandles.forDevice(device).setValue("online", 1);
+                return wheel.newTimeout(ecoflowProperties.getOfflineTimeout(), new DeadlineWheel.Listener() {
+                    @Override
+                    public void onExpired() {
+                        log.debug("Device '{}' with sn '{}' has not sent a message for {}",
+                                device.getName(), sn, ecoflowProperties.getOfflineTimeout());
+                        meterHandles.forDevice(device).setValue("online", 0);
+                    }
+
+                    @Override
+                    public void onRevived() {
+                        meterHandles.forDevice(device).setValue("online", 1);
+                    }
+                });
+            });
+            // retired devices are marked before they are forgotten, so forget removes this timeout or it is seen here
+            if (meterHandles.isRetired(device)) {
+                devices.remove(device.getSn(), timeout);
+                timeout.cancel();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Stops tracking a device which left the account.
+     */
+    public void forget(Device device) {
+        var timeout = devices.remove(device.getSn());
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    public void onMessage(Device device) {
+        track(device).touch();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.close();
+    }
+}
@@ -0,0 +1,153 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.Level;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Problems of the message path, logged once per {@code ecoflow.diagnostics.window} for every distinct
+ * (device, parameter, reason) instead of once per message. Repeats within the window are counted and reported
+ * with the next line that gets logged; a new firmware field no longer floods the log with identical lines.
+ * <p>
+ * The problems seen within {@code ecoflow.diagnostics.retention} are listed by {@link #getProblems()}. At most
+ * {@code maxKeys} are tracked, problems beyond that are only counted.
+ */
+@Log4j2
+@Component
+public class MessageDiagnostics {
+    public enum Reason {
+        INVALID_NAME(Level.WARN),
+        NO_HANDLER(Level.WARN),
+        NO_PARAMETERS(Level.ERROR),
+        FAILED(Level.ERROR);
+
+        private final Level level;
+
+        Reason(Level level) {
+            this.level = level;
+        }
+    }
+
+    private record Key(String device, String parameter, Reason reason) {
+    }
+
+    /**
+     * Snapshot of a problem, times in epoch milliseconds.
+     */
+    public record Problem(String device, String parameter, Reason reason, long count, long firstSeen,
+                          long lastSeen, String detail) {
+    }
+
+    private static final class Entry {
+        private final long firstSeen = System.currentTimeMillis();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder suppressed = new LongAdder();
+        private final AtomicLong nextLogNanos = new AtomicLong(System.nanoTime());
+        private volatile long lastSeen;
+        private volatile String detail;
+    }
+
+    private final long windowNanos;
+    private final long retentionMillis;
+    private final int maxKeys;
+    private final int maxDetailLength;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Counter[] suppressed = new Counter[Reason.values().length];
+    private final Counter untracked;
+
+    public MessageDiagnostics(EcoflowProperties ecoflowProperties, MeterRegistry meterRegistry) {
+        var config = ecoflowProperties.getDiagnostics();
+        this.windowNanos = config.getWindow().toNanos();
+        this.retentionMillis = config.getRetention().toMillis();
+        this.maxKeys = config.getMaxKeys();
+        this.maxDetailLength = config.getMaxDetailLength();
+        for (Reason reason : Reason.values()) {
+            suppressed[reason.ordinal()] = Counter.builder("ecoflow_diagnostics_suppressed_total")
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        this.untracked = Counter.builder("ecoflow_diagnostics_untracked_total")
+                .register(meterRegistry);
+        Gauge.builder("ecoflow_diagnostics_problems", entries, ConcurrentHashMap::size)
+                .register(meterRegistry);
+    }
+
+    public void report(String device, String parameter, Reason reason, Supplier<String> detail) {
+        report(device, parameter, reason, detail, null);
+    }
+
+    /**
+     * @param detail built only when the problem is logged, cut to {@code maxDetailLength}
+     * @param error  logged with its stack trace, once per window as well
+     */
+    public void report(String device, String parameter, Reason reason, Supplier<String> detail, Throwable error) {
+        var key = new Key(device, parameter, reason);
+        var entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxKeys) {
+                untracked.increment();
+                return;
+            }
+            entry = entries.computeIfAbsent(key, k -> new Entry());
+        }
+        entry.count.increment();
+        entry.lastSeen = System.currentTimeMillis();
+
+        long now = System.nanoTime();
+        long next = entry.nextLogNanos.get();
+        if (now - next < 0 || !entry.nextLogNanos.compareAndSet(next, now + windowNanos)) {
+            entry.suppressed.increment();
+            suppressed[reason.ordinal()].increment();
+            return;
+        }
+
+        var text = truncate(detail.get());
+        entry.detail = text;
+        long repeats = entry.suppressed.sumThenReset();
+        var message = repeats > 0 ?
+                String.format("%s %s (%s): %s, %d repeats suppressed", device, parameter, reason, text, repeats) :
+                String.format("%s %s (%s): %s", device, parameter, reason, text);
+        if (error != null) {
+            log.log(reason.level, message, error);
+        } else {
+            log.log(reason.level, message);
+        }
+    }
+
+    /**
+     * @return problems seen within the retention, most recent first
+     */
+    public List<Problem> getProblems() {
+        var result = new ArrayList<Problem>(entries.size());
+        entries.forEach((key, entry) -> result.add(new Problem(key.device(), key.parameter(), key.reason(),
+                entry.count.sum(), entry.firstSeen, entry.lastSeen, entry.detail)));
+        result.sort(Comparator.comparingLong(Problem::lastSeen).reversed());
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${ecoflow.diagnostics.window:PT1m}")
+    public void expire() {
+        long oldest = System.currentTimeMillis() - retentionMillis;
+        entries.values().removeIf(entry -> entry.lastSeen < oldest);
+    }
+
+    private String truncate(String text) {
+        if (text == null || text.length() <= maxDetailLength) {
+            return text;
+        }
+        return text.substring(0, maxDetailLength) + "... (" + text.length() + " chars)";
+    }
+}
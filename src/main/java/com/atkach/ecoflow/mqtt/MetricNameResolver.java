@@ -0,0 +1,201 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.common.util.StringUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.data.util.ParsingUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Turns raw parameter keys into Prometheus metric names (without the {@code ecoflow_} prefix) and remembers
+ * the result, devices keep sending the same small set of keys.
+ * <p>
+ * The cache is two-level (typeCode or parent name, then raw key) so a lookup does not allocate a composite key.
+ * Hits only read the maps. Misses insert under a lock; once {@code ecoflow.nameCache.maxSize} entries are cached,
+ * every insert evicts one chosen by a clock over all entries, which skips (and clears) entries hit since the hand
+ * last passed. Emptied maps are removed with their last entry, so unknown typeCodes cannot grow the cache.
+ */
+@Component
+public class MetricNameResolver {
+    public enum Verdict {
+        NAME,
+        SKIP,
+        INVALID
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class ResolvedName {
+        private final Verdict verdict;
+        private final String name;
+
+        public boolean isValid() {
+            return verdict == Verdict.NAME;
+        }
+    }
+
+    private static final String NO_PREFIX = "";
+
+    private static final class Entry {
+        private final Map<String, Map<String, Entry>> cache;
+        private final String prefix;
+        private final String key;
+        private final ResolvedName resolved;
+        private volatile boolean referenced;
+
+        private Entry(Map<String, Map<String, Entry>> cache, String prefix, String key, ResolvedName resolved) {
+            this.cache = cache;
+            this.prefix = prefix;
+            this.key = key;
+            this.resolved = resolved;
+        }
+    }
+
+    private final Pattern prometheusPattern = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private final Map<String, Map<String, Entry>> parameterNames = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Entry>> elementNames = new ConcurrentHashMap<>();
+    private final BiFunction<String, String, ResolvedName> nameFunction = this::computeName;
+    private final BiFunction<String, String, ResolvedName> elementNameFunction = this::computeElementName;
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private final Entry[] clock;
+    private int hand;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public MetricNameResolver(MeterRegistry meterRegistry, EcoflowProperties ecoflowProperties) {
+        this.maxSize = ecoflowProperties.getNameCache().getMaxSize();
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("ecoflow.nameCache.maxSize must be positive: " + maxSize);
+        }
+        this.clock = new Entry[maxSize];
+        this.hits = Counter.builder("ecoflow_name_cache_requests_total").tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ecoflow_name_cache_requests_total").tag("result", "miss")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("ecoflow_name_cache_evictions_total")
+                .register(meterRegistry);
+        Gauge.builder("ecoflow_name_cache_size", size, AtomicInteger::get)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Name of a quota parameter, {@code typeCode} may be blank.
+     */
+    public ResolvedName resolve(String typeCode, String key) {
+        return lookup(parameterNames, typeCode == null ? NO_PREFIX : typeCode, key, nameFunction);
+    }
+
+    /**
+     * Name of a field of an element of a list of objects, the {@code sn} field is skipped as it becomes a tag.
+     */
+    public ResolvedName resolveElement(String name, String key) {
+        return lookup(elementNames, name, key, elementNameFunction);
+    }
+
+    private ResolvedName computeName(String typeCode, String key) {
+        var fullName = StringUtils.isNotBlank(typeCode) ?
+                String.format("%s_%s", typeCode, key) : key;
+        var name = ParsingUtils.reconcatenateCamelCase(fullName, "_");
+
+        if (name.endsWith("_bytes") || name.endsWith("_ver") || name.endsWith("_sn")) {
+            return new ResolvedName(Verdict.SKIP, name);
+        }
+        if (!prometheusPattern.matcher(name).matches()) {
+            return new ResolvedName(Verdict.INVALID, name);
+        }
+        return new ResolvedName(Verdict.NAME, name);
+    }
+
+    private ResolvedName computeElementName(String name, String key) {
+        var elementKey = ParsingUtils.reconcatenateCamelCase(key.replace(".", "_"), "_");
+        if (elementKey.equals("sn")) {
+            return new ResolvedName(Verdict.SKIP, elementKey);
+        }
+        return new ResolvedName(Verdict.NAME, name + "_" + elementKey);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Number of typeCode and parent name maps, for tests.
+     */
+    int prefixes() {
+        return parameterNames.size() + elementNames.size();
+    }
+
+    private ResolvedName lookup(Map<String, Map<String, Entry>> cache, String prefix, String key,
+                                BiFunction<String, String, ResolvedName> compute) {
+        var byKey = cache.get(prefix);
+        if (byKey != null) {
+            var entry = byKey.get(key);
+            if (entry != null) {
+                hits.increment();
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                return entry.resolved;
+            }
+        }
+
+        misses.increment();
+        var resolved = compute.apply(prefix, key);
+        lock.lock();
+        try {
+            byKey = cache.get(prefix);
+            var existing = byKey != null ? byKey.get(key) : null;
+            if (existing != null) {
+                return existing.resolved;
+            }
+            var entry = new Entry(cache, prefix, key, resolved);
+            int slot = size.get() < maxSize ? size.getAndIncrement() : evict();
+            clock[slot] = entry;
+            cache.computeIfAbsent(prefix, p -> new ConcurrentHashMap<>()).put(key, entry);
+            return resolved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first entry under the hand that was not hit since the hand last passed it.
+     *
+     * @return the freed slot
+     */
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % clock.length;
+            var entry = clock[slot];
+            if (entry.referenced) {
+                entry.referenced = false;
+                continue;
+            }
+            var byKey = entry.cache.get(entry.prefix);
+            byKey.remove(entry.key);
+            if (byKey.isEmpty()) {
+                entry.cache.remove(entry.prefix);
+            }
+            evictions.increment();
+            return slot;
+        }
+    }
+}
@@ -1,187 +1,115 @@
 package com.atkach.ecoflow.mqtt;
 
-import com.atkach.ecoflow.api.EcoflowClient;
+import com.atkach.ecoflow.api.EcoflowAccounts;
 import com.atkach.ecoflow.api.dto.Device;
-import com.atkach.ecoflow.dto.MessagePayload;
-import com.atkach.ecoflow.mqtt.handlers.MetricsHandler;
+import com.atkach.ecoflow.metrics.StartupMetrics;
+import com.atkach.ecoflow.mqtt.pipeline.IngestionPipeline;
+import com.atkach.ecoflow.mqtt.pipeline.RawMessage;
 import com.atkach.ecoflow.properties.EcoflowProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import io.micrometer.common.util.StringUtils;
+import com.atkach.ecoflow.replay.CaptureRecorder;
+import com.atkach.ecoflow.utils.ThreadFactories;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Tag;
-import io.micrometer.core.instrument.Tags;
-import lombok.Getter;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.log4j.Log4j2;
-import org.eclipse.paho.client.mqttv3.*;
-import org.springframework.data.util.ParsingUtils;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
-import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 @Log4j2
 @Component
-public class MqttSubscriber implements IMqttMessageListener, MqttCallbackExtended {
+@DependsOn("seriesSnapshot")
+public class MqttSubscriber implements IMqttMessageListener {
     private final EcoflowProperties ecoflowProperties;
-    private final EcoflowClient ecoflowClient;
+    private final EcoflowAccounts ecoflowAccounts;
     private final MeterRegistry meterRegistry;
-    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
-    private final Pattern prometheusPattern = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
-    private final List<MetricsHandler> handlers;
-
-    @Getter
-    private final ConcurrentHashMap<MetricCacheKey, MetricCacheValue> metricsCache = new ConcurrentHashMap<>();
-
-    public MqttSubscriber(EcoflowClient ecoflowClient, EcoflowProperties ecoflowProperties,
-                          MeterRegistry meterRegistry, List<MetricsHandler> handlers) throws MqttException {
+    private final QuotaProcessor quotaProcessor;
+    private final DeviceTimeouts deviceTimeouts;
+    private final StartupMetrics startupMetrics;
+    private final CaptureRecorder captureRecorder;
+    private final MessageDiagnostics diagnostics;
+    private final IngestionPipeline pipeline;
+    private final Timer latency;
+    private final Counter withoutParameters;
+    private final Counter failed;
+
+    public MqttSubscriber(EcoflowAccounts ecoflowAccounts, EcoflowProperties ecoflowProperties,
+                          MeterRegistry meterRegistry, QuotaProcessor quotaProcessor,
+                          DeviceTimeouts deviceTimeouts, StartupMetrics startupMetrics,
+                          CaptureRecorder captureRecorder, MessageDiagnostics diagnostics) throws MqttException {
         this.ecoflowProperties = ecoflowProperties;
         this.meterRegistry = meterRegistry;
-        this.handlers = handlers;
-        this.ecoflowClient = ecoflowClient;
-        meterRegistry.gauge("ecoflow_metrics_cache_size", metricsCache,
-                ConcurrentHashMap::size);
-        ecoflowClient.subscribe(this, this);
-    }
-
-    @Scheduled(fixedDelay = 60000)
-    public void checkDevicesForTimeout() {
-        LocalDateTime now = LocalDateTime.now();
-
-        ecoflowClient.getDevices().forEach((sn, device) -> {
-            Duration duration = Duration.between(device.getLastMessage(), now);
-            if (duration.compareTo(ecoflowProperties.getOfflineTimeout()) > 0) {
-                log.debug("Device '{}' with sn '{}' has not sent a message for {}", device.getName(), sn, duration);
-                setGaugeValue("ecoflow_online",
-                        Tags.of("device", device.getName()),
-                        0);
-            } else {
-                setGaugeValue("ecoflow_online",
-                        Tags.of("device", device.getName()),
-                        1);
-            }
-        });
-
-        metricsCache.forEach((key, value) -> {
-            if ("ecoflow_inv_status_ac_in_vol".equals(key.getName())) {
-                if (Duration.between(value.getLastUpdateTime(), LocalDateTime.now())
-                        .compareTo(ecoflowProperties.getOffgridTimeout()) > 0) {
-                    setGaugeValue("ecoflow_offgrid",
-                            key.getTags(),
-                            1);
-                } else {
-                    setGaugeValue("ecoflow_offgrid",
-                            key.getTags(),
-                            0);
-                }
-            }
-        });
-    }
-
-    private void setGaugeValue(String metricName, Tags tags, double value) {
-        var gaugeKey = new MetricCacheKey(metricName, tags);
-
-        var mVal = metricsCache.computeIfAbsent(
-                gaugeKey,
-                k -> new MetricCacheValue(value)
-        );
-
-        mVal.setValue(value);
-
-        meterRegistry.gauge(metricName, tags, mVal);
-    }
-
-    @Override
-    public void connectionLost(Throwable throwable) {
-        log.error("Connection lost");
+        this.quotaProcessor = quotaProcessor;
+        this.deviceTimeouts = deviceTimeouts;
+        this.startupMetrics = startupMetrics;
+        this.captureRecorder = captureRecorder;
+        this.diagnostics = diagnostics;
+        this.ecoflowAccounts = ecoflowAccounts;
+        // receive to processed, including the queue wait
+        this.latency = Timer.builder("ecoflow_message_latency_seconds")
+                .register(meterRegistry);
+        this.withoutParameters = Counter.builder("ecoflow_ingestion_errors_total").tag("reason", "no_parameters")
+                .register(meterRegistry);
+        this.failed = Counter.builder("ecoflow_ingestion_errors_total").tag("reason", "failed")
+                .register(meterRegistry);
+        ecoflowAccounts.getDevices().forEach(deviceTimeouts::track);
+        this.pipeline = new IngestionPipeline(ecoflowProperties.getPipeline(), meterRegistry,
+                ThreadFactories.create("ecoflow-pipeline-", ecoflowProperties.isVirtualThreads()),
+                this::processMessage);
+        ecoflowAccounts.subscribe(this);
     }
 
-    protected void processParameters(Device device, String prefix, Map<String, Object> params) {
-        params.forEach(
-                (p, v) -> {
-                    var fullName = StringUtils.isNotBlank(prefix) ?
-                            String.format("%s_%s", prefix, p) : p;
-                    var name = ParsingUtils.reconcatenateCamelCase(fullName, "_");
-
-                    if (!name.endsWith("_bytes") && !name.endsWith("_ver") && !name.endsWith("_sn")) {
-                        if (prometheusPattern.matcher(name).matches()) {
-                            boolean processed = false;
-                            for (MetricsHandler handler : handlers) {
-                                if (handler.canHandle(device, name, v)) {
-                                    List<MetricValue> metrics = handler.getMetrics(device, name, v);
-                                    for (MetricValue metric : metrics) {
-                                        var metricName = String.format("ecoflow_%s", metric.getMetricName());
-                                        var tags = Tags.of(
-                                                Stream.concat(
-                                                        Stream.of(Tag.of("device", device.getName())),
-                                                        metric.getTags().stream()
-                                                ).toList()
-                                        );
-                                        setGaugeValue(metricName, tags, metric.getValue());
-                                    }
-                                    processed = true;
-                                }
-                            }
-
-                            if (!processed) {
-                                log.warn("{} can not be processed, value: {}, type {}", name, v, v.getClass());
-                            }
-                        } else {
-                            log.warn("{} does not comply with prometheus name format", name);
-                        }
-                    }
-                }
-        );
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        pipeline.close();
     }
 
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage) {
+        captureRecorder.record(topic, mqttMessage.getPayload());
         try {
-            var payloadString = new String(mqttMessage.getPayload());
-            try {
-                var payload = objectMapper.readValue(payloadString, MessagePayload.class);
-
-                var device = ecoflowClient.getDeviceByTopic(topic);
-                device.setLastMessage(LocalDateTime.now());
-                meterRegistry.counter("ecoflow_mqtt_messages_receive_total",
-                        Tags.of("device", device.getName())
-                ).increment();
-
-                if (Objects.nonNull(payload.getParams())) {
-                    processParameters(device, payload.getTypeCode(), payload.getParams());
-                } else if (Objects.nonNull(payload.getParam())) {
-                    processParameters(device, payload.getTypeCode(), payload.getParam());
-                } else {
-                    log.error("Message without parameters {}", payloadString);
-                }
-            } catch (Exception e) {
-                log.error("Unexpected error in subscriber " + payloadString + ", topic " + topic, e);
-            }
-        } catch (Exception e) {
-            log.error("Unexpected error in subscriber, topic " + topic, e);
+            pipeline.submit(topic, mqttMessage.getPayload());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while enqueueing message, topic {}", topic);
         }
     }
 
-    @Override
-    public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
-    }
-
-    @Override
-    public void connectComplete(boolean b, String s) {
+    protected void processMessage(RawMessage message) {
+        var topic = message.getTopic();
+        Device device = null;
         try {
-            log.info("Connected to MQTT broker");
-            ecoflowClient.subscribe(this, this);
+            device = ecoflowAccounts.getDeviceByTopic(topic);
+            if (device == null) {
+                // queued before its device was removed by discovery
+                log.debug("Dropping message of unknown topic {}", topic);
+                return;
+            }
+            ecoflowAccounts.messageReceived(topic);
+            deviceTimeouts.onMessage(device);
+            if (!quotaProcessor.process(device, message.getPayload())) {
+                withoutParameters.increment();
+                diagnostics.report(device.getName(), "params", MessageDiagnostics.Reason.NO_PARAMETERS,
+                        () -> "message without parameters " + payload(message));
+            }
+            startupMetrics.messageProcessed();
         } catch (Exception e) {
-            log.error("Unexpected error in subscriber during connection", e);
+            failed.increment();
+            diagnostics.report(device != null ? device.getName() : topic, e.getClass().getSimpleName(),
+                    MessageDiagnostics.Reason.FAILED,
+                    () -> "unexpected error in subscriber, topic " + topic + ", message " + payload(message), e);
+        } finally {
+            latency.record(System.nanoTime() - message.getReceivedNanos(), TimeUnit.NANOSECONDS);
         }
     }
+
+    private static String payload(RawMessage message) {
+        return new String(message.getPayload(), StandardCharsets.UTF_8);
+    }
 }
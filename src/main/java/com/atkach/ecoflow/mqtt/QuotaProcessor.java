@@ -0,0 +1,206 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.DeviceMeters;
+import com.atkach.ecoflow.metrics.IngestionMeters;
+import com.atkach.ecoflow.metrics.MeterHandles;
+import com.atkach.ecoflow.metrics.SeriesHandle;
+import com.atkach.ecoflow.mqtt.decoder.QuotaMessageDecoder;
+import com.atkach.ecoflow.mqtt.decoder.QuotaSink;
+import com.atkach.ecoflow.mqtt.handlers.HandlerDispatcher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a quota message of a device to its series: decoding, name resolution, the {@link HandlerDispatcher}
+ * for values the decoder does not handle inline, and the series updates.
+ * <p>
+ * These stages interleave while the decoder walks the message, so the sink sums the time of the callbacks per
+ * stage and the rest counts as decoding. The sums are recorded once per message to the device's
+ * {@link IngestionMeters}.
+ */
+@Log4j2
+@Component
+public class QuotaProcessor {
+    private static final int DECODE = IngestionMeters.Stage.DECODE.ordinal();
+    private static final int NORMALIZE = IngestionMeters.Stage.NORMALIZE.ordinal();
+    private static final int DISPATCH = IngestionMeters.Stage.DISPATCH.ordinal();
+    private static final int UPDATE = IngestionMeters.Stage.UPDATE.ordinal();
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final QuotaMessageDecoder decoder = new QuotaMessageDecoder(objectMapper);
+    private final HandlerDispatcher handlerDispatcher;
+    private final MetricNameResolver nameResolver;
+    private final MeterHandles meterHandles;
+    private final MessageDiagnostics diagnostics;
+
+    public QuotaProcessor(HandlerDispatcher handlerDispatcher, MetricNameResolver nameResolver,
+                          MeterHandles meterHandles, MessageDiagnostics diagnostics) {
+        this.handlerDispatcher = handlerDispatcher;
+        this.nameResolver = nameResolver;
+        this.meterHandles = meterHandles;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * @return {@code false} if the message has no parameters
+     */
+    public boolean process(Device device, byte[] payload) throws IOException {
+        var deviceMeters = meterHandles.forDevice(device);
+        deviceMeters.messageReceived();
+        var ingestion = deviceMeters.getIngestion();
+        var sink = new DeviceSink(device, deviceMeters, payload, ingestion.isStageTimersEnabled());
+        long start = sink.now();
+        boolean found = decoder.decode(payload, sink);
+        if (sink.timed) {
+            sink.finish(System.nanoTime() - start);
+            ingestion.record(sink.typeCode, sink.stageNanos);
+        }
+        if (sink.time > 0) {
+            ingestion.processed(sink.time);
+        }
+        return found;
+    }
+
+    private class DeviceSink implements QuotaSink {
+        private final Device device;
+        private final DeviceMeters deviceMeters;
+        private final byte[] payload;
+        private final boolean timed;
+        private final long[] stageNanos = new long[IngestionMeters.Stage.values().length];
+        private String typeCode;
+        private long time;
+        private int rawOffset = -1;
+        private int rawLength;
+
+        DeviceSink(Device device, DeviceMeters deviceMeters, byte[] payload, boolean timed) {
+            this.device = device;
+            this.deviceMeters = deviceMeters;
+            this.payload = payload;
+            this.timed = timed;
+        }
+
+        long now() {
+            return timed ? System.nanoTime() : 0;
+        }
+
+        private void add(int stage, long start) {
+            if (timed) {
+                stageNanos[stage] += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Decoding is whatever the message took beyond the callbacks.
+         */
+        void finish(long totalNanos) {
+            long decode = totalNanos - stageNanos[NORMALIZE] - stageNanos[DISPATCH] - stageNanos[UPDATE];
+            stageNanos[DECODE] = Math.max(0, decode);
+        }
+
+        @Override
+        public void onTime(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public String resolveName(String typeCode, String key) {
+            long start = now();
+            this.typeCode = typeCode;
+            var resolved = nameResolver.resolve(typeCode, key);
+            add(NORMALIZE, start);
+
+            if (resolved.getVerdict() == MetricNameResolver.Verdict.INVALID) {
+                deviceMeters.getIngestion().unhandled(IngestionMeters.Unhandled.INVALID_NAME);
+                diagnostics.report(device.getName(), resolved.getName(), MessageDiagnostics.Reason.INVALID_NAME,
+                        () -> "does not comply with prometheus name format");
+            }
+            return resolved.isValid() ? resolved.getName() : null;
+        }
+
+        @Override
+        public String resolveElementName(String name, String key) {
+            long start = now();
+            var resolved = nameResolver.resolveElement(name, key);
+            add(NORMALIZE, start);
+            return resolved.isValid() ? resolved.getName() : null;
+        }
+
+        @Override
+        public boolean decodeInline(String name) {
+            long start = now();
+            boolean inline = handlerDispatcher.decodesInline(device, name);
+            add(DISPATCH, start);
+            return inline;
+        }
+
+        @Override
+        public void onValue(String name, double value) {
+            long start = now();
+            deviceMeters.setValue(name, value);
+            add(UPDATE, start);
+        }
+
+        @Override
+        public void onIndexedValue(String name, int index, double value) {
+            long start = now();
+            deviceMeters.setIndexedValue(name, index, value);
+            add(UPDATE, start);
+        }
+
+        @Override
+        public void onSerialValue(String name, String serial, double value) {
+            long start = now();
+            deviceMeters.setSerialValue(name, serial, value);
+            add(UPDATE, start);
+        }
+
+        @Override
+        public boolean acceptComplexValue(String name, byte[] payload, int offset, int length) {
+            long start = now();
+            boolean unchanged = deviceMeters.touchIfUnchanged(name, payload, offset, length);
+            add(UPDATE, start);
+            if (unchanged) {
+                return false;
+            }
+            rawOffset = offset;
+            rawLength = length;
+            return true;
+        }
+
+        @Override
+        public void onComplexValue(String name, Object value) {
+            int offset = rawOffset;
+            rawOffset = -1;
+
+            long start = now();
+            List<MetricValue> metrics = handlerDispatcher.getMetrics(device, name, value);
+            add(DISPATCH, start);
+            if (metrics != null) {
+                start = now();
+                var handles = new ArrayList<SeriesHandle>(metrics.size());
+                for (MetricValue metric : metrics) {
+                    var metricName = String.format("ecoflow_%s", metric.getMetricName());
+                    handles.add(deviceMeters.setTaggedValue(metricName, Tags.of(metric.getTags()),
+                            metric.getValue()));
+                }
+                if (offset >= 0) {
+                    deviceMeters.rememberComplexValue(name, payload, offset, rawLength, handles);
+                }
+                add(UPDATE, start);
+            } else {
+                deviceMeters.getIngestion().unhandled(IngestionMeters.Unhandled.NO_HANDLER);
+                diagnostics.report(device.getName(), name, MessageDiagnostics.Reason.NO_HANDLER,
+                        () -> "can not be processed, value: " + value + ", type "
+                                + (value == null ? null : value.getClass().getName()));
+            }
+        }
+    }
+}
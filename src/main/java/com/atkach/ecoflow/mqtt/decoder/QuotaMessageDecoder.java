@@ -0,0 +1,281 @@
+package com.atkach.ecoflow.mqtt.decoder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Walks a quota message straight from the payload bytes and reports numeric parameters to a {@link QuotaSink}.
+ * <p>
+ * Numbers, lists of numbers and lists of objects tagged with {@code sn} are decoded inline, mirroring
+ * {@code SingleValueHandler}, {@code SingleValueArrayHandler} and {@code MultiValueArrayHandler}.
+ * Any other shape, and any parameter the sink does not want inline, is materialized on its own and passed to
+ * {@link QuotaSink#onComplexValue}.
+ * <p>
+ * The first of {@code params} and {@code param} that holds an object is decoded, the other one is skipped.
+ */
+public class QuotaMessageDecoder {
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
+
+    public QuotaMessageDecoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * @return {@code false} if the message has neither {@code params} nor {@code param}
+     */
+    public boolean decode(byte[] payload, QuotaSink sink) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Quota message is not a JSON object");
+            }
+
+            String typeCode = null;
+            boolean typeCodeKnown = false;
+            boolean found = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                switch (field) {
+                    case "typeCode" -> {
+                        typeCode = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                        typeCodeKnown = true;
+                    }
+                    case "time", "timestamp" -> {
+                        if (token.isNumeric()) {
+                            sink.onTime(parser.getLongValue());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "params", "param" -> {
+                        if (!found && token == JsonToken.START_OBJECT) {
+                            if (!typeCodeKnown) {
+                                typeCode = scanTypeCode(payload);
+                                typeCodeKnown = true;
+                            }
+                            decodeParams(parser, payload, typeCode, sink);
+                            found = true;
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Parameters usually follow {@code typeCode}; when they don't, the header is read in a separate pass.
+     */
+    private String scanTypeCode(byte[] payload) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("typeCode".equals(field)) {
+                    return token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    private void decodeParams(JsonParser parser, byte[] payload, String typeCode, QuotaSink sink)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken token = parser.nextToken();
+            String name = sink.resolveName(typeCode, key);
+
+            if (name == null) {
+                parser.skipChildren();
+            } else if (token.isStructStart() && (token == JsonToken.START_OBJECT || !sink.decodeInline(name))) {
+                decodeStruct(parser, payload, name, sink);
+            } else if (token.isNumeric() && sink.decodeInline(name)) {
+                sink.onValue(name, parser.getDoubleValue());
+            } else if (token == JsonToken.START_ARRAY) {
+                decodeArray(parser, payload, name, sink);
+            } else {
+                sink.onComplexValue(name, objectMapper.readValue(parser, Object.class));
+            }
+        }
+    }
+
+    /**
+     * Objects and lists are offered to {@link QuotaSink#acceptComplexValue} with their raw bytes first.
+     */
+    private void decodeStruct(JsonParser parser, byte[] payload, String name, QuotaSink sink) throws IOException {
+        int start = (int) parser.currentTokenLocation().getByteOffset();
+        parser.skipChildren();
+        int end = (int) parser.currentLocation().getByteOffset();
+        if (sink.acceptComplexValue(name, payload, start, end - start)) {
+            sink.onComplexValue(name, objectMapper.readValue(payload, start, end - start, Object.class));
+        }
+    }
+
+    /**
+     * Values of a list are buffered and reported only once the whole list turned out to have a supported shape,
+     * otherwise the list is re-read from its byte range and reported as a complex value.
+     */
+    private void decodeArray(JsonParser parser, byte[] payload, String name, QuotaSink sink) throws IOException {
+        JsonStreamContext parent = parser.getParsingContext().getParent();
+        int start = (int) parser.currentTokenLocation().getByteOffset();
+        Scratch scratch = SCRATCH.get();
+        scratch.clear();
+
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            return;
+        }
+
+        boolean numbers = token.isNumeric();
+        boolean inline;
+        if (numbers) {
+            inline = readNumbers(parser, scratch);
+        } else if (token == JsonToken.START_OBJECT) {
+            inline = readObjects(parser, name, sink, scratch);
+        } else {
+            inline = false;
+        }
+
+        if (!inline) {
+            finishArray(parser, parent);
+            int end = (int) parser.currentLocation().getByteOffset();
+            scratch.clear();
+            if (sink.acceptComplexValue(name, payload, start, end - start)) {
+                sink.onComplexValue(name, objectMapper.readValue(payload, start, end - start, Object.class));
+            }
+            return;
+        }
+
+        for (int i = 0; i < scratch.size; i++) {
+            if (numbers) {
+                sink.onIndexedValue(name, i, scratch.values[i]);
+            } else {
+                sink.onSerialValue(scratch.names[i], scratch.serials[i], scratch.values[i]);
+            }
+        }
+        scratch.clear();
+    }
+
+    private boolean readNumbers(JsonParser parser, Scratch scratch) throws IOException {
+        JsonToken token = parser.currentToken();
+        do {
+            if (!token.isNumeric()) {
+                return false;
+            }
+            scratch.add(null, null, parser.getDoubleValue());
+        } while ((token = parser.nextToken()) != JsonToken.END_ARRAY);
+        return true;
+    }
+
+    private boolean readObjects(JsonParser parser, String name, QuotaSink sink, Scratch scratch) throws IOException {
+        JsonToken token = parser.currentToken();
+        do {
+            if (token != JsonToken.START_OBJECT || !readElement(parser, name, sink, scratch)) {
+                return false;
+            }
+        } while ((token = parser.nextToken()) != JsonToken.END_ARRAY);
+        return true;
+    }
+
+    private boolean readElement(JsonParser parser, String name, QuotaSink sink, Scratch scratch) throws IOException {
+        int elementStart = scratch.size;
+        String serial = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken token = parser.nextToken();
+
+            if ("sn".equals(key)) {
+                if (!token.isScalarValue() || token == JsonToken.VALUE_NULL) {
+                    return false;
+                }
+                serial = parser.getValueAsString();
+                continue;
+            }
+
+            String elementName = sink.resolveElementName(name, key);
+            if (elementName == null) {
+                parser.skipChildren();
+                continue;
+            }
+            if (!token.isNumeric()) {
+                return false;
+            }
+            scratch.add(elementName, null, parser.getDoubleValue());
+        }
+
+        if (serial == null) {
+            return false;
+        }
+        if (StringUtils.isBlank(serial)) {
+            scratch.size = elementStart;
+        } else {
+            Arrays.fill(scratch.serials, elementStart, scratch.size, serial);
+        }
+        return true;
+    }
+
+    /**
+     * Skips whatever is left of the list the parser is positioned in, including the closing bracket.
+     */
+    private static void finishArray(JsonParser parser, JsonStreamContext parent) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token.isStructStart()) {
+            parser.skipChildren();
+        }
+        while (parser.currentToken() != JsonToken.END_ARRAY || parser.getParsingContext() != parent) {
+            token = parser.nextToken();
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end of quota message");
+            }
+            if (token.isStructStart()) {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static final class Scratch {
+        private String[] names = new String[32];
+        private String[] serials = new String[32];
+        private double[] values = new double[32];
+        private int size;
+
+        void add(String name, String serial, double value) {
+            if (size == values.length) {
+                names = Arrays.copyOf(names, size * 2);
+                serials = Arrays.copyOf(serials, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            names[size] = name;
+            serials[size] = serial;
+            values[size] = value;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(serials, 0, size, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.atkach.ecoflow.mqtt.decoder;
+
+/**
+ * Receives the values of a quota message while {@link QuotaMessageDecoder} walks it.
+ * Names passed to the value callbacks are the ones returned by the resolve methods.
+ */
+public interface QuotaSink {
+    /**
+     * @return metric name (without the {@code ecoflow_} prefix) for a parameter, or {@code null} to skip it
+     */
+    String resolveName(String typeCode, String key);
+
+    /**
+     * @return metric name for a field of an element of a list of objects, or {@code null} to skip the field
+     */
+    String resolveElementName(String name, String key);
+
+    /**
+     * @return {@code false} to get numbers and lists of the parameter through {@link #onComplexValue} as well
+     */
+    default boolean decodeInline(String name) {
+        return true;
+    }
+
+    /**
+     * Called with the {@code time} (or {@code timestamp}) of the message, wherever it appears.
+     */
+    default void onTime(long time) {
+    }
+
+    void onValue(String name, double value);
+
+    void onIndexedValue(String name, int index, double value);
+
+    void onSerialValue(String name, String serial, double value);
+
+    /**
+     * Called with the raw JSON of an object or list before it is materialized for {@link #onComplexValue}.
+     *
+     * @return {@code false} to skip the value, e.g. because it did not change since the last message
+     */
+    default boolean acceptComplexValue(String name, byte[] payload, int offset, int length) {
+        return true;
+    }
+
+    /**
+     * Called with the materialized value for everything the decoder does not handle inline.
+     */
+    void onComplexValue(String name, Object value);
+}
@@ -0,0 +1,147 @@
+package com.atkach.ecoflow.mqtt.handlers;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.mqtt.MetricValue;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes a parameter value to the {@link MetricsHandler} for its {@link ValueShape}.
+ * <p>
+ * Handlers restricted to name prefixes or device models are tried before general ones, the first matching handler
+ * takes the value. Handlers which don't declare shapes are asked through {@link MetricsHandler#canHandle}.
+ * With {@code ecoflow.handlers.multiDispatch} every handler whose {@code canHandle} accepts the value gets it,
+ * as before the dispatch table existed. Parameters several handlers apply to then bypass inline decoding, so
+ * numbers and numeric lists reach all of them as well.
+ */
+@Component
+public class HandlerDispatcher {
+    private final boolean multiDispatch;
+    private final Route[] routes;
+    private final Map<ValueShape, Route[]> table = new EnumMap<>(ValueShape.class);
+    private final Route[] restricted;
+
+    public HandlerDispatcher(List<MetricsHandler> handlers, EcoflowProperties ecoflowProperties) {
+        this.multiDispatch = ecoflowProperties.getHandlers().isMultiDispatch();
+        this.routes = handlers.stream().map(Route::new).toArray(Route[]::new);
+        this.restricted = Arrays.stream(routes).filter(Route::isRestricted).toArray(Route[]::new);
+        for (ValueShape shape : ValueShape.values()) {
+            var candidates = new ArrayList<Route>();
+            Arrays.stream(restricted).filter(r -> r.accepts(shape)).forEach(candidates::add);
+            Arrays.stream(routes).filter(r -> !r.isRestricted() && r.accepts(shape)).forEach(candidates::add);
+            table.put(shape, candidates.toArray(Route[]::new));
+        }
+    }
+
+    /**
+     * @return metrics of the value, {@code null} if no handler took it
+     */
+    public List<MetricValue> getMetrics(Device device, String name, Object value) {
+        if (multiDispatch) {
+            return getMetricsFromAll(device, name, value);
+        }
+
+        for (Route route : table.get(ValueShape.of(value))) {
+            if (route.matches(device, name) && (route.shaped || route.handler.canHandle(device, name, value))) {
+                return route.handler.getMetrics(device, name, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the decoder may turn a number or numeric list of the parameter into series itself. Not if a
+     * restricted handler has to see it, nor with {@code multiDispatch} if more than one handler applies.
+     */
+    public boolean decodesInline(Device device, String name) {
+        if (hasRestrictedHandler(device, name)) {
+            return false;
+        }
+        if (!multiDispatch) {
+            return true;
+        }
+        int matching = 0;
+        for (Route route : routes) {
+            if (route.matches(device, name) && ++matching > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a handler restricted to this name or device has to see the parameter, instead of it being decoded
+     * inline.
+     */
+    public boolean hasRestrictedHandler(Device device, String name) {
+        for (Route route : restricted) {
+            if (route.matches(device, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<MetricValue> getMetricsFromAll(Device device, String name, Object value) {
+        List<MetricValue> result = null;
+        for (Route route : routes) {
+            if (route.matches(device, name) && route.handler.canHandle(device, name, value)) {
+                if (result == null) {
+                    result = new ArrayList<>();
+                }
+                result.addAll(route.handler.getMetrics(device, name, value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Handler with its declarations copied to arrays, so matching does not allocate iterators.
+     */
+    private static final class Route {
+        private final MetricsHandler handler;
+        private final Set<ValueShape> shapes;
+        private final boolean shaped;
+        private final String[] namePrefixes;
+        private final String[] serialPrefixes;
+
+        Route(MetricsHandler handler) {
+            this.handler = handler;
+            this.shapes = handler.getShapes();
+            this.shaped = !shapes.isEmpty();
+            this.namePrefixes = handler.getNamePrefixes().toArray(String[]::new);
+            this.serialPrefixes = handler.getSerialPrefixes().toArray(String[]::new);
+        }
+
+        boolean isRestricted() {
+            return namePrefixes.length > 0 || serialPrefixes.length > 0;
+        }
+
+        boolean accepts(ValueShape shape) {
+            return !shaped || shapes.contains(shape);
+        }
+
+        boolean matches(Device device, String name) {
+            return startsWithAny(name, namePrefixes) && startsWithAny(device.getSn(), serialPrefixes);
+        }
+
+        private static boolean startsWithAny(String value, String[] prefixes) {
+            if (prefixes.length == 0) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (value != null && value.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -4,8 +4,32 @@ import com.atkach.ecoflow.api.dto.Device;
 import com.atkach.ecoflow.mqtt.MetricValue;
 
 import java.util.List;
+import java.util.Set;
 
 public interface MetricsHandler {
     List<MetricValue> getMetrics(Device device, String name, Object value);
     boolean canHandle(Device device, String name, Object value);
+
+    /**
+     * Shapes the {@link HandlerDispatcher} routes to this handler without asking {@link #canHandle}.
+     * Empty means the handler is asked for values of every shape.
+     */
+    default Set<ValueShape> getShapes() {
+        return Set.of();
+    }
+
+    /**
+     * Restricts the handler to metric names (without the {@code ecoflow_} prefix) starting with one of these.
+     * Restricted handlers take precedence over general ones, and their parameters bypass inline decoding.
+     */
+    default Set<String> getNamePrefixes() {
+        return Set.of();
+    }
+
+    /**
+     * Restricts the handler to device models, given as serial number prefixes (e.g. {@code R331} for River 2).
+     */
+    default Set<String> getSerialPrefixes() {
+        return Set.of();
+    }
 }
@@ -1,18 +1,23 @@
 package com.atkach.ecoflow.mqtt.handlers;
 
 import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.mqtt.MetricNameResolver;
 import com.atkach.ecoflow.mqtt.MetricValue;
 import io.micrometer.core.instrument.Tag;
+import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.data.util.ParsingUtils;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Component
+@RequiredArgsConstructor
 public class MultiValueArrayHandler implements MetricsHandler {
+    private final MetricNameResolver nameResolver;
+
     @Override
     public List<MetricValue> getMetrics(Device device, String name, Object value) {
         if (value instanceof List listValue) {
@@ -27,15 +32,15 @@ public class MultiValueArrayHandler implements MetricsHandler {
                     }
 
                     for (Object oKey : mapValue.keySet()) {
-                        var key = ParsingUtils.reconcatenateCamelCase(oKey.toString().replace(".", "_"), "_");
+                        var elementName = nameResolver.resolveElement(name, oKey.toString());
 
-                        if (key.equals("sn")) {
+                        if (!elementName.isValid()) {
                             continue;
                         }
 
                         var oValue = mapValue.get(oKey);
                         result.add(
-                                new MetricValue(name + "_" + key, HandlerUtils.toDouble(oValue),
+                                new MetricValue(elementName.getName(), HandlerUtils.toDouble(oValue),
                                         List.of(
                                                 Tag.of("sn", serial)
                                         ))
@@ -57,4 +62,9 @@ public class MultiValueArrayHandler implements MetricsHandler {
 
         return false;
     }
+
+    @Override
+    public Set<ValueShape> getShapes() {
+        return Set.of(ValueShape.MAP_LIST);
+    }
 }
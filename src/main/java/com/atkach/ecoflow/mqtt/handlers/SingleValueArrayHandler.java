@@ -7,6 +7,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 @Component
 public class SingleValueArrayHandler implements MetricsHandler {
@@ -37,4 +38,9 @@ public class SingleValueArrayHandler implements MetricsHandler {
 
         return false;
     }
+
+    @Override
+    public Set<ValueShape> getShapes() {
+        return Set.of(ValueShape.NUMBER_LIST);
+    }
 }
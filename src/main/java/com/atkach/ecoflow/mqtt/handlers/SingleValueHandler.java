@@ -6,6 +6,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 @Component
 public class SingleValueHandler implements MetricsHandler {
@@ -20,4 +21,9 @@ public class SingleValueHandler implements MetricsHandler {
     public boolean canHandle(Device device, String name, Object value) {
         return value instanceof Number;
     }
+
+    @Override
+    public Set<ValueShape> getShapes() {
+        return Set.of(ValueShape.NUMBER);
+    }
 }
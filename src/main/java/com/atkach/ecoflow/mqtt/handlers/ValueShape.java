@@ -0,0 +1,36 @@
+package com.atkach.ecoflow.mqtt.handlers;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shape of a parameter value, determined with a single look at the value.
+ */
+public enum ValueShape {
+    NUMBER,
+    NUMBER_LIST,
+    MAP_LIST,
+    OTHER;
+
+    /**
+     * An empty list is a {@link #NUMBER_LIST}, it yields no metrics either way.
+     */
+    public static ValueShape of(Object value) {
+        if (value instanceof Number) {
+            return NUMBER;
+        }
+        if (!(value instanceof List<?> list)) {
+            return OTHER;
+        }
+        if (list.isEmpty()) {
+            return NUMBER_LIST;
+        }
+        ValueShape shape = list.get(0) instanceof Map ? MAP_LIST : NUMBER_LIST;
+        for (Object element : list) {
+            if (shape == MAP_LIST ? !(element instanceof Map) : !(element instanceof Number)) {
+                return OTHER;
+            }
+        }
+        return shape;
+    }
+}
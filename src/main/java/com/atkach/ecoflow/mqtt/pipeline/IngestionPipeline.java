@@ -0,0 +1,116 @@
+package com.atkach.ecoflow.mqtt.pipeline;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hands raw MQTT messages from the Paho callback thread over to a pool of workers.
+ * <p>
+ * Messages are partitioned by topic, and every device publishes to its own topic, so messages of one device
+ * are always processed by the same worker in arrival order.
+ * <p>
+ * Workers wait on {@link MessageRing}'s locks only, so they can be virtual threads.
+ */
+@Log4j2
+public class IngestionPipeline implements AutoCloseable {
+    private static final long POLL_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final MessageRing[] rings;
+    private final Thread[] workers;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final Consumer<RawMessage> processor;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter droppedCounter;
+    private final Counter coalescedCounter;
+    private volatile boolean running = true;
+
+    public IngestionPipeline(EcoflowProperties.Pipeline config, MeterRegistry meterRegistry,
+                             ThreadFactory threadFactory, Consumer<RawMessage> processor) {
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.batchSize = config.getBatchSize();
+        this.processor = processor;
+        this.rings = new MessageRing[config.getWorkers()];
+        this.workers = new Thread[config.getWorkers()];
+
+        this.batchSizeSummary = DistributionSummary.builder("ecoflow_pipeline_batch_size")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("ecoflow_pipeline_dropped_total")
+                .tag("policy", overflowPolicy.name().toLowerCase())
+                .tag("reason", "overflow")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("ecoflow_pipeline_dropped_total")
+                .tag("policy", overflowPolicy.name().toLowerCase())
+                .tag("reason", "coalesced")
+                .register(meterRegistry);
+
+        for (int i = 0; i < rings.length; i++) {
+            var ring = new MessageRing(config.getQueueCapacity());
+            rings[i] = ring;
+            Gauge.builder("ecoflow_pipeline_queue_depth", ring, MessageRing::size)
+                    .tag("worker", Integer.toString(i))
+                    .register(meterRegistry);
+
+            workers[i] = threadFactory.newThread(() -> runWorker(ring));
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Called on the MQTT callback thread, must not do anything but enqueue.
+     */
+    public void submit(String topic, byte[] payload) throws InterruptedException {
+        var ring = rings[Math.floorMod(topic.hashCode(), rings.length)];
+        var outcome = ring.offer(new RawMessage(topic, payload, System.nanoTime()), overflowPolicy);
+
+        switch (outcome) {
+            case DROPPED_OLDEST -> droppedCounter.increment();
+            case COALESCED -> coalescedCounter.increment();
+            default -> {
+            }
+        }
+    }
+
+    private void runWorker(MessageRing ring) {
+        List<RawMessage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.clear();
+                int n = ring.drainTo(batch, batchSize, POLL_TIMEOUT_NANOS);
+                if (n == 0) {
+                    continue;
+                }
+                batchSizeSummary.record(n);
+                for (RawMessage message : batch) {
+                    processor.accept(message);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Unexpected error in ingestion worker", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.atkach.ecoflow.mqtt.pipeline;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size ring buffer of raw messages owned by a single pipeline worker.
+ */
+class MessageRing {
+    enum Outcome {
+        ENQUEUED,
+        DROPPED_OLDEST,
+        COALESCED
+    }
+
+    private final RawMessage[] items;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head;
+    private int count;
+
+    MessageRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        this.items = new RawMessage[capacity];
+    }
+
+    Outcome offer(RawMessage message, OverflowPolicy policy) throws InterruptedException {
+        lock.lock();
+        try {
+            Outcome outcome = Outcome.ENQUEUED;
+            if (count == items.length) {
+                switch (policy) {
+                    case BLOCK -> {
+                        while (count == items.length) {
+                            notFull.await();
+                        }
+                    }
+                    case COALESCE_PER_DEVICE -> {
+                        if (replaceNewest(message)) {
+                            return Outcome.COALESCED;
+                        }
+                        dropOldest();
+                        outcome = Outcome.DROPPED_OLDEST;
+                    }
+                    case DROP_OLDEST -> {
+                        dropOldest();
+                        outcome = Outcome.DROPPED_OLDEST;
+                    }
+                }
+            }
+            items[(head + count) % items.length] = message;
+            count++;
+            notEmpty.signal();
+            return outcome;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to {@code max} messages into {@code batch}, waiting at most {@code timeoutNanos} for the first one.
+     */
+    int drainTo(List<RawMessage> batch, int max, long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = timeoutNanos;
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int n = Math.min(max, count);
+            for (int i = 0; i < n; i++) {
+                batch.add(items[head]);
+                items[head] = null;
+                head = (head + 1) % items.length;
+            }
+            count -= n;
+            notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dropOldest() {
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+    }
+
+    /**
+     * Quota messages are per device, so the newest pending one of the same topic is the one to overwrite:
+     * replacing an older entry would reorder it against the ones queued after it. Each {@code typeCode} carries
+     * its own subset of parameters, so only a message of the same {@code typeCode} is superseded.
+     */
+    private boolean replaceNewest(RawMessage message) {
+        for (int i = count - 1; i >= 0; i--) {
+            int idx = (head + i) % items.length;
+            if (items[idx].getTopic().equals(message.getTopic())
+                    && Objects.equals(items[idx].getTypeCode(), message.getTypeCode())) {
+                items[idx] = message;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,20 @@
+package com.atkach.ecoflow.mqtt.pipeline;
+
+/**
+ * What the MQTT callback thread does when a worker queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Evict the oldest queued message of the partition to make room.
+     */
+    DROP_OLDEST,
+    /**
+     * Replace the newest queued message of the same topic (device) and {@code typeCode}, falling back to
+     * {@link #DROP_OLDEST}.
+     */
+    COALESCE_PER_DEVICE,
+    /**
+     * Block the callback thread until the worker frees a slot.
+     */
+    BLOCK
+}
@@ -0,0 +1,59 @@
+package com.atkach.ecoflow.mqtt.pipeline;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+
+@Getter
+public class RawMessage {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String topic;
+    private final byte[] payload;
+    private final long receivedNanos;
+    @Getter(AccessLevel.NONE)
+    private String typeCode;
+    @Getter(AccessLevel.NONE)
+    private boolean typeCodeRead;
+
+    public RawMessage(String topic, byte[] payload, long receivedNanos) {
+        this.topic = topic;
+        this.payload = payload;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * {@code typeCode} of the quota message, read from the payload on first use; {@code null} if it has none or
+     * is not a JSON object. Only {@link MessageRing} asks for it, under its lock.
+     */
+    String getTypeCode() {
+        if (!typeCodeRead) {
+            typeCode = readTypeCode(payload);
+            typeCodeRead = true;
+        }
+        return typeCode;
+    }
+
+    private static String readTypeCode(byte[] payload) {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("typeCode".equals(field)) {
+                    return token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -1,18 +1,43 @@
 package com.atkach.ecoflow.properties;
 
+import com.atkach.ecoflow.metrics.SeriesOverflowPolicy;
+import com.atkach.ecoflow.mqtt.pipeline.OverflowPolicy;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @Component
 @ConfigurationProperties(prefix = "ecoflow")
 public class EcoflowProperties {
     private Api api;
+    private List<Account> accounts = new ArrayList<>();
+    private int connectThreads = 4;
+    private boolean virtualThreads = false;
     private Duration offlineTimeout;
     private Duration offgridTimeout;
+    private Duration timeoutResolution = Duration.ofSeconds(1);
+    private Pipeline pipeline = new Pipeline();
+    private NameCache nameCache = new NameCache();
+    private Series series = new Series();
+    private Scrape scrape = new Scrape();
+    private Handlers handlers = new Handlers();
+    private Sharding sharding = new Sharding();
+    private Snapshot snapshot = new Snapshot();
+    private Cache cache = new Cache();
+    private Duration discoveryInterval = Duration.ofMinutes(10);
+    private Replay replay = new Replay();
+    private Capture capture = new Capture();
+    private Ingestion ingestion = new Ingestion();
+    private Diagnostics diagnostics = new Diagnostics();
 
     @Data
     public static class Api {
@@ -20,4 +45,139 @@ public class EcoflowProperties {
         private String accessKey;
         private String secret;
     }
+
+    /**
+     * Account of the multi account mode, {@code zoneId} defaults to {@code ecoflow.zoneId}.
+     */
+    @Data
+    public static class Account {
+        private String name;
+        private String zoneId;
+        private Api api = new Api();
+    }
+
+    @Data
+    public static class Pipeline {
+        private int workers = 2;
+        private int queueCapacity = 1024;
+        private int batchSize = 64;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    }
+
+    @Data
+    public static class NameCache {
+        private int maxSize = 10000;
+    }
+
+    @Data
+    public static class Series {
+        private Duration defaultTtl = Duration.ofHours(1);
+        private Map<String, Duration> ttl = new HashMap<>();
+        private Duration sweepInterval = Duration.ofMinutes(1);
+        private int maxSeries = 100000;
+        private int maxSeriesPerDevice = 5000;
+        private SeriesOverflowPolicy overflowPolicy = SeriesOverflowPolicy.REJECT_NEW;
+        private boolean suppressUnchanged = true;
+    }
+
+    @Data
+    public static class Scrape {
+        private boolean cacheEnabled = true;
+        private Duration minInterval = Duration.ZERO;
+        private boolean precompress = true;
+        /**
+         * Whether the series are also exposed on {@code /actuator/prometheus}, as they were before
+         * {@code /metrics}. Turn off once every scrape job reads {@code /metrics}.
+         */
+        private boolean actuatorSeries = true;
+    }
+
+    /**
+     * Per device and typeCode stage timers of the quota processing, {@code histogram} adds buckets for
+     * {@code histogram_quantile} at the cost of many more series.
+     */
+    @Data
+    public static class Ingestion {
+        private boolean stageTimers = true;
+        private boolean histogram = false;
+    }
+
+    /**
+     * Problems of the message path are logged once per {@code window} for every device, parameter and reason.
+     */
+    @Data
+    public static class Diagnostics {
+        private Duration window = Duration.ofMinutes(1);
+        private Duration retention = Duration.ofHours(1);
+        private int maxKeys = 1000;
+        private int maxDetailLength = 512;
+    }
+
+    @Data
+    public static class Handlers {
+        private boolean multiDispatch = false;
+    }
+
+    /**
+     * Either {@code shardIndex} of {@code shardCount}, or {@code self} within a static list of {@code peers}.
+     */
+    @Data
+    public static class Sharding {
+        private int shardIndex = 0;
+        private int shardCount = 1;
+        private List<String> peers = new ArrayList<>();
+        private String self;
+        private int virtualNodes = 128;
+    }
+
+    /**
+     * Series snapshot for warm restarts, disabled without a {@code path}.
+     */
+    @Data
+    public static class Snapshot {
+        private String path;
+        private Duration interval = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Cache of device lists and MQTT credentials for starting without the API, disabled without a {@code dir}.
+     */
+    @Data
+    public static class Cache {
+        private String dir;
+        private Duration retryInitial = Duration.ofSeconds(5);
+        private Duration retryMax = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Replay of captured messages instead of the EcoFlow broker, see the {@code replay} profile.
+     * {@code rate} is in messages per second, 0 replays as fast as possible. {@code from} and {@code to} select a
+     * time window of a recorded capture log.
+     */
+    @Data
+    public static class Replay {
+        private boolean enabled = false;
+        private String source;
+        private double rate = 0;
+        private int loops = 1;
+        private Duration reportInterval = Duration.ofSeconds(10);
+        private boolean exitWhenDone = true;
+        private Instant from;
+        private Instant to;
+    }
+
+    /**
+     * Recorder of the raw MQTT messages, disabled without a {@code dir}.
+     */
+    @Data
+    public static class Capture {
+        private String dir;
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        private Duration segmentDuration = Duration.ofHours(1);
+        private DataSize maxSize = DataSize.ofGigabytes(1);
+        private Duration maxAge = Duration.ofDays(7);
+        private int queueCapacity = 8192;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private Duration indexInterval = Duration.ofSeconds(1);
+    }
 }
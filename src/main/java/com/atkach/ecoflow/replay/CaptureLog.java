@@ -0,0 +1,203 @@
+package com.atkach.ecoflow.replay;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Binary capture log written by {@link CaptureRecorder}: a directory of segments, each with a seek index.
+ * <p>
+ * A segment {@code capture-<start millis>.bin} is a header (magic, version, start time) followed by records,
+ * each an {@code int} length of the rest of the record, the receive time in epoch milliseconds, the UTF-8 topic
+ * prefixed by its {@code short} length, and the raw payload. A record cut off by a crash ends the segment.
+ * <p>
+ * Its index {@code capture-<start millis>.idx} is a header followed by pairs of receive time and offset of a
+ * record, one about every {@code ecoflow.capture.indexInterval}. Reading a time window starts at the last indexed
+ * record before the window instead of at the start of the segment.
+ */
+@Log4j2
+public final class CaptureLog {
+    static final int SEGMENT_MAGIC = 0x45464350;
+    static final int INDEX_MAGIC = 0x45464349;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES;
+    static final int INDEX_HEADER_BYTES = Integer.BYTES * 2;
+    static final int INDEX_ENTRY_BYTES = Long.BYTES * 2;
+    /**
+     * Receive time and topic length, in front of the topic and the payload.
+     */
+    static final int RECORD_HEADER_BYTES = Long.BYTES + Short.BYTES;
+
+    private static final String PREFIX = "capture-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private CaptureLog() {
+    }
+
+    static Path segmentFile(Path dir, long startMillis) {
+        return dir.resolve(String.format("%s%013d%s", PREFIX, startMillis, SEGMENT_SUFFIX));
+    }
+
+    static Path indexFile(Path segment) {
+        var name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * @return segments of the capture directory, oldest first
+     */
+    static List<Path> segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(CaptureLog::isSegmentName)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    static long startMillis(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static boolean isSegmentName(Path file) {
+        var name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                && name.length() > PREFIX.length() + SEGMENT_SUFFIX.length();
+    }
+
+    /**
+     * @return whether the file is a capture directory or a single segment
+     */
+    public static boolean isCapture(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            return true;
+        }
+        if (!Files.isRegularFile(path) || Files.size(path) < Integer.BYTES) {
+            return false;
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var magic = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(magic, 0);
+            return magic.flip().getInt() == SEGMENT_MAGIC;
+        }
+    }
+
+    /**
+     * Messages received within {@code [from, to)} of a capture directory or a single segment, {@code null} bounds
+     * are open.
+     */
+    public static List<CapturedMessage> read(Path path, Instant from, Instant to) throws IOException {
+        var messages = new ArrayList<CapturedMessage>();
+        read(path, from, to, messages::add);
+        return messages;
+    }
+
+    public static void read(Path path, Instant from, Instant to, Consumer<CapturedMessage> consumer)
+            throws IOException {
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        if (!Files.isDirectory(path)) {
+            readSegment(path, fromMillis, toMillis, consumer);
+            return;
+        }
+
+        var segments = segments(path);
+        for (int i = 0; i < segments.size(); i++) {
+            var segment = segments.get(i);
+            // a segment ends where the next one starts
+            if (startMillis(segment) >= toMillis) {
+                break;
+            }
+            if (i + 1 < segments.size() && startMillis(segments.get(i + 1)) <= fromMillis) {
+                continue;
+            }
+            readSegment(segment, fromMillis, toMillis, consumer);
+        }
+    }
+
+    private static void readSegment(Path segment, long fromMillis, long toMillis,
+                                    Consumer<CapturedMessage> consumer) throws IOException {
+        try (var channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < SEGMENT_HEADER_BYTES || buffer.getInt() != SEGMENT_MAGIC
+                    || buffer.getInt() != VERSION) {
+                throw new IOException(segment + " is not a capture segment");
+            }
+            long offset = seek(indexFile(segment), fromMillis);
+            buffer.position(offset > SEGMENT_HEADER_BYTES && offset < buffer.limit() ? (int) offset
+                    : SEGMENT_HEADER_BYTES);
+
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length < RECORD_HEADER_BYTES || length > buffer.remaining()) {
+                    if (length != 0) {
+                        log.warn("Capture segment {} ends with a truncated record at {}", segment,
+                                buffer.position() - Integer.BYTES);
+                    }
+                    return;
+                }
+                int end = buffer.position() + length;
+                long receivedMillis = buffer.getLong();
+                if (receivedMillis >= toMillis) {
+                    return;
+                }
+                if (receivedMillis < fromMillis) {
+                    buffer.position(end);
+                    continue;
+                }
+                var topic = new byte[buffer.getShort() & 0xffff];
+                buffer.get(topic);
+                var payload = new byte[end - buffer.position()];
+                buffer.get(payload);
+                consumer.accept(new CapturedMessage(new String(topic, StandardCharsets.UTF_8), payload,
+                        receivedMillis));
+            }
+        }
+    }
+
+    /**
+     * @return offset of the last indexed record received before {@code fromMillis}, 0 if there is none
+     */
+    private static long seek(Path index, long fromMillis) throws IOException {
+        if (fromMillis == Long.MIN_VALUE || !Files.isRegularFile(index)) {
+            return 0;
+        }
+        try (var channel = FileChannel.open(index, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < INDEX_HEADER_BYTES || buffer.getInt() != INDEX_MAGIC
+                    || buffer.getInt() != VERSION) {
+                return 0;
+            }
+            // entries are in receive order, a partly written last entry is ignored
+            int low = 0;
+            int high = buffer.remaining() / INDEX_ENTRY_BYTES - 1;
+            long offset = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int position = INDEX_HEADER_BYTES + mid * INDEX_ENTRY_BYTES;
+                if (buffer.getLong(position) < fromMillis) {
+                    offset = buffer.getLong(position + Long.BYTES);
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return offset;
+        }
+    }
+}
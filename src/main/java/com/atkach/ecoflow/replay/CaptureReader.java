@@ -0,0 +1,72 @@
+package com.atkach.ecoflow.replay;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads captured messages, one JSON object per line:
+ * <pre>
+ * {"topic": "/open/&lt;login&gt;/&lt;sn&gt;/quota", "time": 1729166402004, "payload": {...}}
+ * </pre>
+ * {@code payload} is the message as JSON, or a string with the raw message. {@code time} is optional.
+ * <p>
+ * Capture directories and segments recorded by {@link CaptureRecorder} are read as {@link CaptureLog}.
+ */
+public class CaptureReader {
+    private final ObjectMapper objectMapper;
+
+    public CaptureReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public List<CapturedMessage> read(Path file) throws IOException {
+        return read(file, null, null);
+    }
+
+    /**
+     * @param from first receive time of a capture log, {@code null} from its start
+     * @param to   receive time after the window of a capture log, {@code null} to its end
+     */
+    public List<CapturedMessage> read(Path file, Instant from, Instant to) throws IOException {
+        if (CaptureLog.isCapture(file)) {
+            return CaptureLog.read(file, from, to);
+        }
+        var messages = new ArrayList<CapturedMessage>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                messages.add(parse(line, file, lineNumber));
+            }
+        }
+        return messages;
+    }
+
+    private CapturedMessage parse(String line, Path file, int lineNumber) throws IOException {
+        var node = objectMapper.readTree(line);
+        var topic = node.path("topic");
+        var payload = node.path("payload");
+        if (!topic.isTextual() || payload.isMissingNode()) {
+            throw new IOException(file + ":" + lineNumber + " needs a topic and a payload");
+        }
+        return new CapturedMessage(topic.asText(), payloadBytes(payload), node.path("time").asLong(0));
+    }
+
+    private byte[] payloadBytes(JsonNode payload) throws IOException {
+        return payload.isTextual() ?
+                payload.asText().getBytes(StandardCharsets.UTF_8) : objectMapper.writeValueAsBytes(payload);
+    }
+}
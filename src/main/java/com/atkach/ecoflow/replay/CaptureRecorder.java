@@ -0,0 +1,387 @@
+package com.atkach.ecoflow.replay;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.atkach.ecoflow.utils.ThreadFactories;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.atkach.ecoflow.replay.CaptureLog.INDEX_ENTRY_BYTES;
+import static com.atkach.ecoflow.replay.CaptureLog.INDEX_MAGIC;
+import static com.atkach.ecoflow.replay.CaptureLog.RECORD_HEADER_BYTES;
+import static com.atkach.ecoflow.replay.CaptureLog.SEGMENT_HEADER_BYTES;
+import static com.atkach.ecoflow.replay.CaptureLog.SEGMENT_MAGIC;
+import static com.atkach.ecoflow.replay.CaptureLog.VERSION;
+
+/**
+ * Records the raw MQTT messages to the {@link CaptureLog} in {@code ecoflow.capture.dir}, disabled without one.
+ * <p>
+ * {@link #record} only enqueues, messages that do not fit into the queue are dropped and counted. A writer thread
+ * collects them in a direct buffer and writes it out every {@code flushInterval}, or when it is full. Segments
+ * are rotated at {@code segmentSize} or after {@code segmentDuration}; on rotation the oldest segments are deleted
+ * while the log is larger than {@code maxSize}, and those of messages older than {@code maxAge}.
+ * <p>
+ * Segment time is receive time, so a time window can be replayed by {@code ecoflow.replay.from} and {@code to}.
+ */
+@Log4j2
+@Component
+public class CaptureRecorder implements AutoCloseable {
+    private static final int BUFFER_BYTES = 256 * 1024;
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final EcoflowProperties.Capture config;
+    private final Path dir;
+    private final BlockingQueue<CapturedMessage> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final Counter written;
+    private final Counter dropped;
+    private final Counter failed;
+    private final Counter bytes;
+    private final Counter deletedBySize;
+    private final Counter deletedByAge;
+    private final Timer flushTime;
+    private volatile double lagSeconds;
+    private volatile int segmentCount;
+    private volatile long sizeBytes;
+
+    // writer thread only
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private Segment segment;
+    private int bufferedMessages;
+    private long oldestBufferedMillis;
+    private long closedSegmentsBytes;
+    private long failedUntilNanos;
+
+    public CaptureRecorder(EcoflowProperties ecoflowProperties, MeterRegistry meterRegistry) {
+        this.config = ecoflowProperties.getCapture();
+        this.dir = StringUtils.isBlank(config.getDir()) ? null : Path.of(config.getDir());
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+
+        this.written = Counter.builder("ecoflow_capture_messages_total").tag("result", "written")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("ecoflow_capture_messages_total").tag("result", "dropped")
+                .register(meterRegistry);
+        this.failed = Counter.builder("ecoflow_capture_messages_total").tag("result", "failed")
+                .register(meterRegistry);
+        this.bytes = Counter.builder("ecoflow_capture_written_bytes_total")
+                .register(meterRegistry);
+        this.deletedBySize = Counter.builder("ecoflow_capture_segments_deleted_total").tag("reason", "size")
+                .register(meterRegistry);
+        this.deletedByAge = Counter.builder("ecoflow_capture_segments_deleted_total").tag("reason", "age")
+                .register(meterRegistry);
+        this.flushTime = Timer.builder("ecoflow_capture_flush_seconds")
+                .register(meterRegistry);
+        // receive of the oldest message of the last flush to the flush
+        Gauge.builder("ecoflow_capture_lag_seconds", this, recorder -> recorder.lagSeconds)
+                .register(meterRegistry);
+        Gauge.builder("ecoflow_capture_queue_depth", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        Gauge.builder("ecoflow_capture_segments", this, recorder -> recorder.segmentCount)
+                .register(meterRegistry);
+        Gauge.builder("ecoflow_capture_size_bytes", this, recorder -> recorder.sizeBytes)
+                .register(meterRegistry);
+
+        this.failedUntilNanos = System.nanoTime();
+        if (dir != null) {
+            writer = ThreadFactories.create("ecoflow-capture-", ecoflowProperties.isVirtualThreads())
+                    .newThread(this::runWriter);
+            writer.start();
+            log.info("Recording MQTT messages to {}", dir);
+        } else {
+            writer = null;
+        }
+    }
+
+    /**
+     * Called on the MQTT callback thread, never blocks.
+     */
+    public void record(String topic, byte[] payload) {
+        if (writer != null) {
+            record(topic, payload, System.currentTimeMillis());
+        }
+    }
+
+    void record(String topic, byte[] payload, long receivedMillis) {
+        if (!queue.offer(new CapturedMessage(topic, payload, receivedMillis))) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes what is queued and closes the segment.
+     */
+    @PreDestroy
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private void runWriter() {
+        long flushNanos = config.getFlushInterval().toNanos();
+        long nextFlush = System.nanoTime() + flushNanos;
+        while (running || !queue.isEmpty()) {
+            try {
+                var message = queue.poll(Math.max(0, nextFlush - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (message != null) {
+                    write(message);
+                }
+                if (System.nanoTime() - nextFlush >= 0) {
+                    if (segment != null) {
+                        flush();
+                    }
+                    nextFlush = System.nanoTime() + flushNanos;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void write(CapturedMessage message) throws IOException {
+        if (System.nanoTime() - failedUntilNanos < 0) {
+            failed.increment();
+            return;
+        }
+        var topic = message.topic().getBytes(StandardCharsets.UTF_8);
+        if (topic.length > 0xffff) {
+            failed.increment();
+            return;
+        }
+        long receivedMillis = message.receivedEpochMillis();
+        int length = RECORD_HEADER_BYTES + topic.length + message.payload().length;
+        if (segment == null || segment.isFull(receivedMillis, Integer.BYTES + length)) {
+            rotate(receivedMillis);
+        }
+
+        ensure(Integer.BYTES + RECORD_HEADER_BYTES + topic.length);
+        long offset = segment.position + buffer.position();
+        buffer.putInt(length)
+                .putLong(receivedMillis)
+                .putShort((short) topic.length)
+                .put(topic);
+        put(message.payload());
+        segment.index(receivedMillis, offset);
+        if (bufferedMessages++ == 0) {
+            oldestBufferedMillis = receivedMillis;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    private void flush() throws IOException {
+        long start = System.nanoTime();
+        buffer.flip();
+        int n = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            segment.data.write(buffer);
+        }
+        buffer.clear();
+        segment.position += n;
+        segment.flushIndex();
+
+        bytes.increment(n);
+        if (bufferedMessages > 0) {
+            written.increment(bufferedMessages);
+            lagSeconds = Math.max(0, System.currentTimeMillis() - oldestBufferedMillis) / 1000.0;
+            bufferedMessages = 0;
+        }
+        sizeBytes = closedSegmentsBytes + segment.position;
+        flushTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void rotate(long nowMillis) throws IOException {
+        long startMillis = nowMillis;
+        if (segment != null) {
+            // two segments in the same millisecond of a tiny segmentSize
+            startMillis = Math.max(nowMillis, segment.startMillis + 1);
+            closeSegment();
+        }
+        Files.createDirectories(dir);
+        segment = new Segment(CaptureLog.segmentFile(dir, startMillis), startMillis);
+        buffer.putInt(SEGMENT_MAGIC)
+                .putInt(VERSION)
+                .putLong(startMillis);
+        retain(nowMillis);
+        log.debug("Recording MQTT messages to {}", segment.file);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        try {
+            flush();
+            closedSegmentsBytes += segment.position + segment.indexPosition;
+        } finally {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    /**
+     * Deletes the oldest segments but the current one while the log is too large or they are too old.
+     */
+    private void retain(long nowMillis) throws IOException {
+        var segments = CaptureLog.segments(dir);
+        long[] sizes = new long[segments.size()];
+        long total = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            var index = CaptureLog.indexFile(segments.get(i));
+            sizes[i] = Files.size(segments.get(i)) + (Files.exists(index) ? Files.size(index) : 0);
+            total += sizes[i];
+        }
+
+        long maxBytes = config.getMaxSize().toBytes();
+        long oldestMillis = nowMillis - config.getMaxAge().toMillis();
+        int remaining = segments.size();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            var file = segments.get(i);
+            if (file.equals(segment.file)) {
+                break;
+            }
+            boolean tooLarge = total > maxBytes;
+            // the next segment starts after the last message of this one
+            boolean tooOld = CaptureLog.startMillis(segments.get(i + 1)) < oldestMillis;
+            if (!tooLarge && !tooOld) {
+                break;
+            }
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(CaptureLog.indexFile(file));
+            (tooLarge ? deletedBySize : deletedByAge).increment();
+            log.debug("Deleted capture segment {}", file);
+            total -= sizes[i];
+            remaining--;
+        }
+        closedSegmentsBytes = total;
+        sizeBytes = total;
+        segmentCount = remaining;
+    }
+
+    private void fail(IOException e) {
+        log.error("Could not write capture segment, dropping messages for "
+                + TimeUnit.NANOSECONDS.toSeconds(RETRY_NANOS) + " seconds", e);
+        failed.increment(bufferedMessages);
+        bufferedMessages = 0;
+        buffer.clear();
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+        failedUntilNanos = System.nanoTime() + RETRY_NANOS;
+    }
+
+    /**
+     * Segment being written and its index.
+     */
+    private final class Segment {
+        private final Path file;
+        private final long startMillis;
+        private final FileChannel data;
+        private final FileChannel index;
+        private final ByteBuffer indexBuffer = ByteBuffer.allocate(64 * INDEX_ENTRY_BYTES);
+        private final long maxBytes = config.getSegmentSize().toBytes();
+        private final long maxMillis = config.getSegmentDuration().toMillis();
+        private final long indexMillis = config.getIndexInterval().toMillis();
+        private long position;
+        private long indexPosition;
+        private long lastIndexedMillis = Long.MIN_VALUE;
+
+        Segment(Path file, long startMillis) throws IOException {
+            this.file = file;
+            this.startMillis = startMillis;
+            this.data = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                this.index = FileChannel.open(CaptureLog.indexFile(file), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                data.close();
+                throw e;
+            }
+            indexBuffer.putInt(INDEX_MAGIC)
+                    .putInt(VERSION);
+        }
+
+        boolean isFull(long nowMillis, int recordBytes) {
+            long size = position + buffer.position();
+            return nowMillis - startMillis >= maxMillis
+                    || (size > SEGMENT_HEADER_BYTES && size + recordBytes > maxBytes);
+        }
+
+        void index(long receivedMillis, long offset) throws IOException {
+            if (lastIndexedMillis != Long.MIN_VALUE && receivedMillis - lastIndexedMillis < indexMillis) {
+                return;
+            }
+            if (indexBuffer.remaining() < INDEX_ENTRY_BYTES) {
+                flushIndex();
+            }
+            indexBuffer.putLong(receivedMillis).putLong(offset);
+            lastIndexedMillis = receivedMillis;
+        }
+
+        /**
+         * Entries are added once their record is buffered and written after the buffer, so they never point past
+         * the end of the segment.
+         */
+        void flushIndex() throws IOException {
+            indexBuffer.flip();
+            while (indexBuffer.hasRemaining()) {
+                indexPosition += index.write(indexBuffer);
+            }
+            indexBuffer.clear();
+        }
+
+        void close() {
+            try (data; index) {
+                data.force(false);
+                index.force(false);
+            } catch (IOException e) {
+                log.warn("Could not close capture segment " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.atkach.ecoflow.replay;
+
+/**
+ * Raw MQTT message as received, with its receive time in epoch milliseconds.
+ */
+public record CapturedMessage(String topic, byte[] payload, long receivedEpochMillis) {
+}
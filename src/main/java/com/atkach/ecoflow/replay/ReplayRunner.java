@@ -0,0 +1,174 @@
+package com.atkach.ecoflow.replay;
+
+import com.atkach.ecoflow.mqtt.MqttSubscriber;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.log4j.Log4j2;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Feeds captured messages into {@link MqttSubscriber#messageArrived} at {@code ecoflow.replay.rate} messages per
+ * second, or as fast as the pipeline takes them, and reports throughput, latency and heap behaviour every
+ * {@code ecoflow.replay.reportInterval} and at the end.
+ * <p>
+ * Latency is {@code ecoflow_message_latency_seconds}, from handing the message over to having processed it; the
+ * {@code replay} profile configures its percentiles.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(name = "ecoflow.replay.enabled", havingValue = "true")
+public class ReplayRunner implements ApplicationRunner {
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final MqttSubscriber mqttSubscriber;
+    private final MeterRegistry meterRegistry;
+    private final EcoflowProperties.Replay config;
+    private final ObjectMapper objectMapper;
+    private final ConfigurableApplicationContext context;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private long sent;
+    private long maxHeapUsed;
+
+    public ReplayRunner(MqttSubscriber mqttSubscriber, MeterRegistry meterRegistry,
+                        EcoflowProperties ecoflowProperties, ObjectMapper objectMapper,
+                        ConfigurableApplicationContext context) {
+        this.mqttSubscriber = mqttSubscriber;
+        this.meterRegistry = meterRegistry;
+        this.config = ecoflowProperties.getReplay();
+        this.objectMapper = objectMapper;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (config.getSource() == null) {
+            throw new IllegalStateException("ecoflow.replay.source has to name a capture file");
+        }
+        var messages = new CaptureReader(objectMapper).read(Path.of(config.getSource()), config.getFrom(),
+                config.getTo());
+        if (messages.isEmpty()) {
+            log.warn("No messages in {}", config.getSource());
+            return;
+        }
+        log.info("Replaying {} messages {} times at {}", messages.size(), config.getLoops(),
+                config.getRate() > 0 ? config.getRate() + " messages/s" : "full speed");
+
+        var latency = meterRegistry.get("ecoflow_message_latency_seconds").timer();
+        var stats = new Stats(latency);
+        long intervalNanos = config.getRate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / config.getRate()) : 0;
+        long reportNanos = config.getReportInterval().toNanos();
+
+        long next = System.nanoTime();
+        long nextReport = next + reportNanos;
+        var window = stats.snapshot();
+        for (int loop = 0; loop < config.getLoops(); loop++) {
+            for (CapturedMessage message : messages) {
+                if (intervalNanos > 0) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    next += intervalNanos;
+                }
+                mqttSubscriber.messageArrived(message.topic(), new MqttMessage(message.payload()));
+                sent++;
+
+                if ((sent & 0xff) == 0 && System.nanoTime() - nextReport >= 0) {
+                    var now = stats.snapshot();
+                    report("progress", window, now);
+                    window = now;
+                    nextReport += reportNanos;
+                }
+            }
+        }
+
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (stats.handled() < sent && System.nanoTime() - drainDeadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        report("done", stats.start, stats.snapshot());
+
+        if (config.isExitWhenDone()) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void report(String phase, Snapshot from, Snapshot to) {
+        double seconds = (to.nanos - from.nanos) / 1e9;
+        var percentiles = to.latency.length == 0 ? "n/a (set the replay profile)" : Arrays.stream(to.latency)
+                .map(p -> String.format("p%s=%.3fms", trim(p.percentile() * 100), p.value(TimeUnit.MILLISECONDS)))
+                .collect(Collectors.joining(" "));
+        log.info("Replay {}: sent {}, processed {}, dropped {}, {} messages/s, latency {} max={}ms, heap used {} MB"
+                        + " (max {} MB, committed {} MB), gc {} collections {} ms",
+                phase, sent, to.processed, to.dropped,
+                String.format("%.0f", (to.processed - from.processed) / seconds),
+                percentiles, String.format("%.3f", to.maxLatencyMillis),
+                to.heapUsed >> 20, maxHeapUsed >> 20, to.heapCommitted >> 20,
+                to.gcCount - from.gcCount, to.gcMillis - from.gcMillis);
+    }
+
+    private static String trim(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private record Snapshot(long nanos, long processed, long dropped, ValueAtPercentile[] latency,
+                            double maxLatencyMillis, long heapUsed, long heapCommitted, long gcCount,
+                            long gcMillis) {
+    }
+
+    private final class Stats {
+        private final Timer latency;
+        private final Snapshot start;
+
+        Stats(Timer latency) {
+            this.latency = latency;
+            this.start = snapshot();
+        }
+
+        long handled() {
+            return latency.count() - start.processed + dropped() - start.dropped;
+        }
+
+        Snapshot snapshot() {
+            var heap = memory.getHeapMemoryUsage();
+            maxHeapUsed = Math.max(maxHeapUsed, heap.getUsed());
+            long gcCount = 0;
+            long gcMillis = 0;
+            for (GarbageCollectorMXBean collector : collectors) {
+                gcCount += Math.max(0, collector.getCollectionCount());
+                gcMillis += Math.max(0, collector.getCollectionTime());
+            }
+            var distribution = latency.takeSnapshot();
+            return new Snapshot(System.nanoTime(), latency.count(), dropped(), distribution.percentileValues(),
+                    distribution.max(TimeUnit.MILLISECONDS), heap.getUsed(), heap.getCommitted(), gcCount, gcMillis);
+        }
+
+        private long dropped() {
+            return (long) meterRegistry.find("ecoflow_pipeline_dropped_total").counters().stream()
+                    .mapToDouble(Counter::count)
+                    .sum();
+        }
+    }
+}
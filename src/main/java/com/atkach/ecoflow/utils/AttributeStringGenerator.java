@@ -1,37 +1,92 @@
 package com.atkach.ecoflow.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.TreeMap;
 
+/**
+ * Flattens request bodies into dotted {@code key=value} attributes, sorted by key, as signed by the EcoFlow API.
+ * <p>
+ * Every class is compiled once into a {@link Plan}: its instance fields sorted by name, each with a
+ * {@link MethodHandle} getter. Walking the plans yields the attributes in key order, so they can be appended
+ * straight to a {@link StringBuilder}. Classes where a nested object could sort differently than its field name
+ * (a name continuing another one with {@code '$'}, which sorts before {@code '.'}) are collected through a
+ * {@link TreeMap} instead.
+ */
 public class AttributeStringGenerator {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<Plan> PLANS = new ClassValue<>() {
+        @Override
+        protected Plan computeValue(Class<?> type) {
+            return Plan.compile(type);
+        }
+    };
 
     public static Map<String, String> generateAttributesMap(Object obj) {
         Map<String, String> attributes = new TreeMap<>();
-        processFields(obj, "", attributes);
+        collect(obj, "", attributes);
         return attributes;
     }
 
-    private static void processFields(Object obj, String prefix, Map<String, String> attributes) {
+    /**
+     * Appends the attributes of {@code obj} as {@code key=value&} in key order.
+     *
+     * @return whether anything was appended
+     */
+    public static boolean appendAttributes(StringBuilder target, Object obj) {
+        int length = target.length();
+        append(obj, "", target);
+        return target.length() != length;
+    }
+
+    private static void append(Object obj, String prefix, StringBuilder target) {
         if (obj == null) {
             return;
         }
 
-        Class<?> objClass = obj.getClass();
-        Field[] fields = objClass.getDeclaredFields();
+        var plan = PLANS.get(obj.getClass());
+        if (!plan.ordered) {
+            var attributes = new TreeMap<String, String>();
+            collect(obj, prefix, attributes);
+            attributes.forEach((key, value) -> target.append(key).append('=').append(value).append('&'));
+            return;
+        }
 
-        for (Field field : fields) {
-            field.setAccessible(true);
-            try {
-                Object value = field.get(obj);
-                String fieldName = prefix.isEmpty() ? field.getName() : prefix + "." + field.getName();
+        for (Property property : plan.properties) {
+            if (property.kind == Kind.OBJECT) {
+                var value = property.get(obj);
                 if (value != null && !isPrimitiveOrWrapper(value.getClass())) {
-                    processFields(value, fieldName, attributes);
-                } else {
-                    attributes.put(fieldName, String.valueOf(value));
+                    append(value, prefix + property.name + ".", target);
+                    continue;
                 }
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
+                target.append(prefix).append(property.name).append('=').append(value).append('&');
+            } else {
+                target.append(prefix).append(property.name).append('=');
+                property.appendPrimitive(obj, target);
+                target.append('&');
+            }
+        }
+    }
+
+    private static void collect(Object obj, String prefix, Map<String, String> attributes) {
+        if (obj == null) {
+            return;
+        }
+
+        for (Property property : PLANS.get(obj.getClass()).properties) {
+            var value = property.get(obj);
+            var key = prefix + property.name;
+            if (value != null && !isPrimitiveOrWrapper(value.getClass())) {
+                collect(value, key + ".", attributes);
+            } else {
+                attributes.put(key, String.valueOf(value));
             }
         }
     }
@@ -41,4 +96,102 @@ public class AttributeStringGenerator {
                 type == Short.class || type == Byte.class || type == Float.class || type == Double.class ||
                 type == Boolean.class || type == Character.class;
     }
+
+    private enum Kind {
+        INT, LONG, BOOLEAN, FLOAT, DOUBLE, OBJECT
+    }
+
+    private record Plan(Property[] properties, boolean ordered) {
+        static Plan compile(Class<?> type) {
+            var properties = Arrays.stream(type.getDeclaredFields())
+                    .filter(field -> !Modifier.isStatic(field.getModifiers()) && !field.isSynthetic())
+                    .sorted(Comparator.comparing(Field::getName))
+                    .map(Property::compile)
+                    .toArray(Property[]::new);
+            return new Plan(properties, isOrdered(properties));
+        }
+
+        /**
+         * Field order equals key order unless a nested object's {@code name.} keys would sort after a sibling
+         * {@code name$...}.
+         */
+        private static boolean isOrdered(Property[] properties) {
+            for (Property nested : properties) {
+                if (nested.kind != Kind.OBJECT || isPrimitiveOrWrapper(nested.type)) {
+                    continue;
+                }
+                for (Property other : properties) {
+                    if (other.name.startsWith(nested.name + "$")) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Property {
+        private final String name;
+        private final Class<?> type;
+        private final Kind kind;
+        private final MethodHandle getter;
+
+        private Property(String name, Class<?> type, Kind kind, MethodHandle getter) {
+            this.name = name;
+            this.type = type;
+            this.kind = kind;
+            this.getter = getter;
+        }
+
+        static Property compile(Field field) {
+            var type = field.getType();
+            var kind = type == int.class || type == short.class || type == byte.class ? Kind.INT :
+                    type == long.class ? Kind.LONG :
+                    type == boolean.class ? Kind.BOOLEAN :
+                    type == float.class ? Kind.FLOAT :
+                    type == double.class ? Kind.DOUBLE :
+                    Kind.OBJECT;
+            var returnType = switch (kind) {
+                case INT -> int.class;
+                case LONG -> long.class;
+                case BOOLEAN -> boolean.class;
+                case FLOAT -> float.class;
+                case DOUBLE -> double.class;
+                case OBJECT -> Object.class;
+            };
+            try {
+                field.setAccessible(true);
+                var getter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(returnType, Object.class));
+                return new Property(field.getName(), type, kind, getter);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot read " + field.getDeclaringClass().getName() + "."
+                        + field.getName() + " of a request body", e);
+            }
+        }
+
+        Object get(Object obj) {
+            try {
+                return (Object) getter.invoke(obj);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot read " + name + " of " + obj.getClass().getName(), e);
+            }
+        }
+
+        void appendPrimitive(Object obj, StringBuilder target) {
+            try {
+                switch (kind) {
+                    case INT -> target.append((int) getter.invokeExact(obj));
+                    case LONG -> target.append((long) getter.invokeExact(obj));
+                    case BOOLEAN -> target.append((boolean) getter.invokeExact(obj));
+                    case FLOAT -> target.append((float) getter.invokeExact(obj));
+                    case DOUBLE -> target.append((double) getter.invokeExact(obj));
+                    default -> throw new IllegalStateException(kind.name());
+                }
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot read " + name + " of " + obj.getClass().getName(), e);
+            }
+        }
+    }
 }
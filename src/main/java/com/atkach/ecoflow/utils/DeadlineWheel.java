@@ -0,0 +1,204 @@
+package com.atkach.ecoflow.utils;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Hashed timing wheel for timeouts which are re-armed far more often than they expire.
+ * <p>
+ * Re-arming a {@link Timeout} only moves its deadline, the wheel notices the new deadline when the timeout's
+ * bucket comes up and files it again. Only the ticker thread touches the buckets, other threads hand new and
+ * revived timeouts over through a queue. Expiry is detected within one tick of the deadline.
+ */
+@Log4j2
+public class DeadlineWheel implements AutoCloseable {
+    public interface Listener {
+        /**
+         * Called on the ticker thread once the deadline has passed without {@link Timeout#touch()}.
+         */
+        void onExpired();
+
+        /**
+         * Called on the touching thread by the first {@link Timeout#touch()} after expiry.
+         */
+        void onRevived();
+    }
+
+    public final class Timeout {
+        private final long durationNanos;
+        private final Listener listener;
+        private volatile long deadline;
+        private volatile boolean expired;
+        private volatile boolean cancelled;
+        // not a monitor: listeners run under it, on virtual threads a contended monitor would pin the carrier
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Timeout(long durationNanos, Listener listener) {
+            this.durationNanos = durationNanos;
+            this.listener = listener;
+            this.deadline = clock.getAsLong() + durationNanos;
+        }
+
+        public void touch() {
+            deadline = clock.getAsLong() + durationNanos;
+            if (expired) {
+                revive();
+            }
+        }
+
+        /**
+         * Moves the deadline to where it would be had the last {@link #touch()} happened at {@code touchNanos}.
+         * Meant for a timeout which was just created: once the wheel has filed it, expiry may still only be
+         * detected at the previous deadline.
+         */
+        public void backdate(long touchNanos) {
+            deadline = touchNanos + durationNanos;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * Stops tracking, the listener is not called anymore.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void revive() {
+            lock.lock();
+            try {
+                if (expired && !cancelled) {
+                    expired = false;
+                    listener.onRevived();
+                    pending.add(this);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return {@code true} if the timeout has to stay in the wheel
+         */
+        private boolean check(long now) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return false;
+                }
+                if (deadline - now > 0) {
+                    return true;
+                }
+                expired = true;
+                // a concurrent touch() either sees the flag and revives, or its deadline is seen here
+                if (deadline - now > 0) {
+                    expired = false;
+                    return true;
+                }
+                listener.onExpired();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final long resolutionNanos;
+    private final LongSupplier clock;
+    private final long startNanos;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private long processedTick;
+    private ScheduledExecutorService ticker;
+
+    public DeadlineWheel(Duration resolution, int wheelSize) {
+        this(resolution, wheelSize, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    DeadlineWheel(Duration resolution, int wheelSize, LongSupplier clock) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.resolutionNanos = resolution.toNanos();
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        this.buckets = new ArrayDeque[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = wheelSize - 1;
+    }
+
+    public synchronized void start() {
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                var thread = new Thread(r, "ecoflow-deadline-wheel");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ticker.scheduleAtFixedRate(this::advance, resolutionNanos, resolutionNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public Timeout newTimeout(Duration duration, Listener listener) {
+        var timeout = new Timeout(duration.toNanos(), listener);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Processes all ticks up to now, runs on the ticker thread.
+     */
+    void advance() {
+        long now = clock.getAsLong();
+        long nowTick = (now - startNanos) / resolutionNanos;
+
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            file(timeout);
+        }
+
+        while (processedTick < nowTick) {
+            processedTick++;
+            var bucket = buckets[(int) (processedTick & mask)];
+            for (int i = bucket.size(); i > 0; i--) {
+                timeout = bucket.poll();
+                try {
+                    if (timeout.check(now)) {
+                        file(timeout);
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Timeout listener failed", e);
+                }
+            }
+        }
+    }
+
+    private void file(Timeout timeout) {
+        long tick = (timeout.deadline - startNanos + resolutionNanos - 1) / resolutionNanos;
+        if (tick <= processedTick) {
+            tick = processedTick + 1;
+        }
+        buckets[(int) (tick & mask)].add(timeout);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+}
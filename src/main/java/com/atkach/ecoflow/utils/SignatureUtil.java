@@ -1,32 +1,54 @@
 package com.atkach.ecoflow.utils;
 
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.http.HttpHeaders;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Signs EcoFlow open API requests.
+ * <p>
+ * {@code Mac} instances are initialized once per thread and secret and reused, nonces come from one shared
+ * non-blocking {@link SecureRandom}. Bodies without URI variables are flattened straight into a per-thread
+ * {@link StringBuilder} by {@link AttributeStringGenerator#appendAttributes}.
+ */
 public class SignatureUtil {
-    private static byte[] hmacSha256Hex(String key, String data) throws Exception {
-        Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-        SecretKeySpec secret_key = new SecretKeySpec(key.getBytes(), "HmacSHA256");
-        sha256_HMAC.init(secret_key);
-
-        return sha256_HMAC.doFinal(data.getBytes());
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final SecureRandom NONCES = new SecureRandom();
+    private static final Map<String, ZoneId> ZONES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<StringBuilder> STRING_TO_SIGN = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private static byte[] hmacSha256(String key, String data) throws GeneralSecurityException {
+        var macs = MACS.get();
+        var mac = macs.get(key);
+        if (mac == null) {
+            mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(new SecretKeySpec(key.getBytes(), HMAC_SHA256));
+            macs.put(key, mac);
+        }
+        // doFinal resets the Mac for the next call
+        return mac.doFinal(data.getBytes());
     }
 
-    private static String toHexString(byte[] bytes) {
-        Formatter result = new Formatter();
-        try (result) {
-            for (var b : bytes) {
-                result.format("%02x", b & 0xff);
-            }
-            return result.toString();
+    static String toHexString(byte[] bytes) {
+        var chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
         }
+        return new String(chars);
+    }
+
+    private static String nonce() {
+        var digits = Integer.toString(NONCES.nextInt(1000000));
+        return "000000".substring(digits.length()) + digits;
     }
 
     public static HttpHeaders generateSignature(
@@ -37,11 +59,11 @@ public class SignatureUtil {
             Map<String, ?> uriVariables,
             Object body) throws Exception {
 
-        var timestamp = String.format("%d",
-                ZonedDateTime.now(ZoneId.of(zoneId)).toInstant().toEpochMilli());
+        // the zone is only validated, epoch milliseconds do not depend on it
+        ZONES.computeIfAbsent(zoneId, ZoneId::of);
+        var timestamp = Long.toString(System.currentTimeMillis());
         if (signatureLogs != null) signatureLogs.add(timestamp);
-        var nonce = String.format("%06d",
-                SecureRandom.getInstanceStrong().nextInt(1000000));
+        var nonce = nonce();
         if (signatureLogs != null) signatureLogs.add(nonce);
         return generateSignature(signatureLogs, accessKey, secret, timestamp, nonce, uriVariables, body);
     }
@@ -55,30 +77,30 @@ public class SignatureUtil {
             Map<String, ?> uriVariables,
             Object body) throws Exception {
 
-        Map<String, String> parameters;
-
-        if (Objects.nonNull(body)) {
-            parameters = AttributeStringGenerator.generateAttributesMap(body);
+        var stringToSign = STRING_TO_SIGN.get();
+        stringToSign.setLength(0);
+        if (uriVariables.isEmpty()) {
+            AttributeStringGenerator.appendAttributes(stringToSign, body);
         } else {
-            parameters = new TreeMap<>();
-        }
-
-        for (var name : uriVariables.keySet()) {
-            parameters.put(name, String.valueOf(uriVariables.get(name)));
+            Map<String, String> parameters = Objects.nonNull(body) ?
+                    AttributeStringGenerator.generateAttributesMap(body) : new TreeMap<>();
+            for (var entry : uriVariables.entrySet()) {
+                parameters.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            for (var entry : parameters.entrySet()) {
+                stringToSign.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+            }
         }
+        stringToSign.append("accessKey=").append(accessKey)
+                .append("&nonce=").append(nonce)
+                .append("&timestamp=").append(timestamp);
 
-        var parametersString = String.join("&", parameters.entrySet().stream()
-                .map(entry -> entry.getKey() + "=" + entry.getValue())
-                .toArray(String[]::new));
+        if (signatureLogs != null) signatureLogs.add(stringToSign.toString());
 
-        var stringToSign =
-                StringUtils.isNotBlank(parametersString) ?
-                        String.format("%s&accessKey=%s&nonce=%s&timestamp=%s", parametersString, accessKey, nonce, timestamp) :
-                        String.format("accessKey=%s&nonce=%s&timestamp=%s", accessKey, nonce, timestamp);
-
-        if (signatureLogs != null) signatureLogs.add(stringToSign);
-
-        var sign = toHexString(hmacSha256Hex(secret, stringToSign));
+        var sign = toHexString(hmacSha256(secret, stringToSign.toString()));
+        if (stringToSign.capacity() > 4096) {
+            STRING_TO_SIGN.remove();
+        }
 
         if (signatureLogs != null) signatureLogs.add(sign);
 
@@ -0,0 +1,40 @@
+package com.atkach.ecoflow.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the exporter's own threads, platform daemon threads or virtual threads.
+ * <p>
+ * Virtual threads are created reflectively, the build targets Java 17 by default and the virtual thread mode
+ * only needs a Java 21 runtime.
+ */
+public final class ThreadFactories {
+    private ThreadFactories() {
+    }
+
+    public static ThreadFactory create(String namePrefix, boolean virtual) {
+        return virtual ? virtual(namePrefix) : platform(namePrefix);
+    }
+
+    public static ThreadFactory platform(String namePrefix) {
+        var counter = new AtomicInteger();
+        return r -> {
+            var thread = new Thread(r, namePrefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static ThreadFactory virtual(String namePrefix) {
+        try {
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on "
+                    + Runtime.version(), e);
+        }
+    }
+}
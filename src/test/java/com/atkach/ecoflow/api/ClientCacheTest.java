@@ -0,0 +1,48 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.dto.MqttCredentials;
+import com.atkach.ecoflow.dto.data.DeviceListResponseData;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientCacheTest {
+    @TempDir
+    Path dir;
+
+    private ClientCache cache() {
+        return new ClientCache(dir.resolve("site-a"), new EcoflowProperties.Cache(), new ObjectMapper());
+    }
+
+    @Test
+    public void savesAndLoads() {
+        var device = new DeviceListResponseData();
+        device.setSn("R331ZEB4ZE000000");
+        device.setDeviceName("delta");
+        var credentials = MqttCredentials.builder()
+                .host("mqtt.ecoflow.com").port(8883).login("open-123").password("secret").clientId("ABC")
+                .build();
+
+        cache().saveDevices(List.of(device));
+        cache().saveCredentials(credentials);
+
+        assertThat(cache().loadDevices()).containsExactly(device);
+        assertThat(cache().loadCredentials()).isEqualTo(credentials);
+    }
+
+    @Test
+    public void ignoresMissingAndBrokenFiles() throws Exception {
+        assertThat(cache().loadDevices()).isNull();
+
+        Files.createDirectories(dir.resolve("site-a"));
+        Files.writeString(dir.resolve("site-a").resolve("mqttCredentials.json"), "{\"host\":");
+        assertThat(cache().loadCredentials()).isNull();
+    }
+}
@@ -0,0 +1,34 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.api.dto.Device;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeviceChangesTest {
+
+    @Test
+    public void detectsAddedRemovedAndRenamedDevices() {
+        var kept = new Device("delta", "SN1");
+        var removed = new Device("river", "SN2");
+        var renamedBefore = new Device("plug", "SN3");
+        var renamedAfter = new Device("kitchen plug", "SN3");
+        var added = new Device("stream", "SN4");
+
+        var changes = DeviceChanges.between(
+                Map.of("SN1", kept, "SN2", removed, "SN3", renamedBefore),
+                Map.of("SN1", kept, "SN3", renamedAfter, "SN4", added));
+
+        assertThat(changes.added()).containsExactlyInAnyOrder(renamedAfter, added);
+        assertThat(changes.removed()).containsExactlyInAnyOrder(removed, renamedBefore);
+    }
+
+    @Test
+    public void unchangedListHasNoChanges() {
+        var devices = Map.of("SN1", new Device("delta", "SN1"));
+
+        assertThat(DeviceChanges.between(devices, Map.of("SN1", new Device("delta", "SN1"))).isEmpty()).isTrue();
+    }
+}
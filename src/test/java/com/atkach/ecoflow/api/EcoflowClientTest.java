@@ -0,0 +1,135 @@
+package com.atkach.ecoflow.api;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.dto.DeviceListResponse;
+import com.atkach.ecoflow.dto.MqttCredentials;
+import com.atkach.ecoflow.dto.data.DeviceListResponseData;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EcoflowClientTest {
+    private static final IMqttMessageListener LISTENER = (topic, message) -> {
+    };
+
+    /**
+     * Records subscriptions instead of talking to a broker.
+     */
+    private static class RecordingMqttClient extends MqttClient {
+        final List<String> subscribed = new ArrayList<>();
+        final List<String> unsubscribed = new ArrayList<>();
+
+        RecordingMqttClient() throws MqttException {
+            super("tcp://localhost:1883", "test", new MemoryPersistence());
+        }
+
+        @Override
+        public void connect(MqttConnectOptions options) {
+        }
+
+        @Override
+        public void subscribe(String topicFilter, IMqttMessageListener messageListener) {
+            subscribed.add(topicFilter);
+        }
+
+        @Override
+        public void unsubscribe(String[] topicFilters) {
+            unsubscribed.addAll(Arrays.asList(topicFilters));
+        }
+    }
+
+    private static class TestClient extends EcoflowClient {
+        List<Device> deviceList;
+        RecordingMqttClient broker;
+
+        TestClient(Device... devices) {
+            super(null, null, null, null, device -> !device.getSn().startsWith("OTHER"));
+            this.deviceList = List.of(devices);
+        }
+
+        @Override
+        protected DeviceListResponse requestDeviceList(List<String> signatureLogs) {
+            var response = new DeviceListResponse();
+            response.setData(deviceList.stream().map(device -> {
+                var data = new DeviceListResponseData();
+                data.setDeviceName(device.getName());
+                data.setSn(device.getSn());
+                return data;
+            }).toList());
+            return response;
+        }
+
+        @Override
+        protected MqttCredentials fetchMqttCredentials() {
+            return MqttCredentials.builder().host("localhost").port(8883).login("login").password("password")
+                    .clientId("client").build();
+        }
+
+        @Override
+        protected MqttClient createMqttClient(MqttCredentials credentials) throws MqttException {
+            broker = new RecordingMqttClient();
+            return broker;
+        }
+    }
+
+    private static String topic(String sn) {
+        return "/open/login/" + sn + "/quota";
+    }
+
+    @Test
+    public void subscribesToDevicesOfThisShard() throws Exception {
+        var client = new TestClient(new Device("delta", "SN1"), new Device("river", "OTHER2"));
+        client.start();
+        client.subscribe(LISTENER);
+
+        assertThat(client.broker.subscribed).containsExactly(topic("SN1"));
+        assertThat(client.getDeviceByTopic(topic("OTHER2"))).isNull();
+    }
+
+    @Test
+    public void discoverySubscribesAddedAndUnsubscribesRemovedDevices() throws Exception {
+        var delta = new Device("delta", "SN1");
+        var river = new Device("river", "SN2");
+        var stream = new Device("stream", "SN3");
+        var client = new TestClient(delta, river);
+        client.start();
+        client.subscribe(LISTENER);
+        client.broker.subscribed.clear();
+
+        client.deviceList = List.of(delta, stream);
+        var indexChanged = new ArrayList<String>();
+        var changes = client.discover(() -> indexChanged.add(client.broker.subscribed.toString()));
+
+        assertThat(changes.added()).containsExactly(stream);
+        assertThat(changes.removed()).containsExactly(river);
+        assertThat(client.broker.unsubscribed).containsExactly(topic("SN2"));
+        assertThat(client.broker.subscribed).containsExactly(topic("SN3"));
+        // the index is replaced before the new topic is subscribed
+        assertThat(indexChanged).containsExactly("[]");
+        assertThat(client.getDeviceByTopic(topic("SN2"))).isNull();
+        assertThat(client.getDeviceByTopic(topic("SN3"))).isEqualTo(stream);
+        assertThat(client.getDevices()).containsOnlyKeys("SN1", "SN3");
+    }
+
+    @Test
+    public void unchangedDeviceListTouchesNoSubscription() throws Exception {
+        var client = new TestClient(new Device("delta", "SN1"));
+        client.start();
+        client.subscribe(LISTENER);
+        client.broker.subscribed.clear();
+
+        assertThat(client.discover(() -> {
+        }).isEmpty()).isTrue();
+        assertThat(client.broker.subscribed).isEmpty();
+        assertThat(client.broker.unsubscribed).isEmpty();
+    }
+}
@@ -0,0 +1,94 @@
+package com.atkach.ecoflow.controller;
+
+import com.atkach.ecoflow.metrics.SeriesStore;
+import com.atkach.ecoflow.mqtt.MetricCacheKey;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Tags;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DebugControllerTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SeriesStore seriesStore = new SeriesStore();
+    private final DebugController controller = new DebugController(seriesStore, objectMapper);
+
+    @BeforeEach
+    public void setUp() {
+        for (int i = 0; i < 5; i++) {
+            seriesStore.allocate(new MetricCacheKey("ecoflow_bms_soc", Tags.of("device", "delta", "index",
+                    Integer.toString(i))), i);
+        }
+        seriesStore.allocate(new MetricCacheKey("ecoflow_pd_watts", Tags.of("device", "delta")), 100);
+        seriesStore.allocate(new MetricCacheKey("ecoflow_bms_soc", Tags.of("device", "river")), 50);
+    }
+
+    @Test
+    public void pagesThroughFilteredSeries() throws Exception {
+        var page = get("delta", "ecoflow_bms_", null, 3, null, null);
+
+        assertThat(page.get("series")).hasSize(3);
+        assertThat(page.get("series").get(0).get("name").asText()).isEqualTo("ecoflow_bms_soc");
+        assertThat(page.get("series").get(0).get("tags").get(0).get("tagName").asText()).isEqualTo("device");
+        assertThat(page.get("series").get(0).has("lastUpdate")).isTrue();
+        assertThat(page.get("series").get(0).get("ageSeconds").asDouble()).isGreaterThanOrEqualTo(0);
+
+        var last = get("delta", "ecoflow_bms_", null, 3, page.get("nextCursor").asText(), null);
+
+        assertThat(last.get("series")).hasSize(2);
+        assertThat(last.get("series").get(1).get("value").asDouble()).isEqualTo(4);
+        assertThat(last.get("nextCursor").isNull()).isTrue();
+    }
+
+    @Test
+    public void pageEndingWithLastSeriesHasNoNextCursor() throws Exception {
+        var page = get("delta", "ecoflow_bms_", null, 5, null, null);
+
+        assertThat(page.get("series")).hasSize(5);
+        assertThat(page.get("nextCursor").isNull()).isTrue();
+    }
+
+    @Test
+    public void filtersByTag() throws Exception {
+        var series = get(null, null, List.of("index:2"), 0, null, null);
+
+        assertThat(series.isArray()).isTrue();
+        assertThat(series).hasSize(1);
+        assertThat(series.get(0).get("value").asDouble()).isEqualTo(2);
+    }
+
+    @Test
+    public void writesBareArrayWithoutLimit() throws Exception {
+        var series = get(null, null, null, 0, null, null);
+
+        assertThat(series.isArray()).isTrue();
+        assertThat(series).hasSize(7);
+        assertThat(series.get(0).get("name").asText()).isEqualTo("ecoflow_bms_soc");
+    }
+
+    @Test
+    public void writesNdjson() throws Exception {
+        var response = new MockHttpServletResponse();
+        controller.getCache("delta", null, null, 5, null, "ndjson", null, response);
+
+        var lines = response.getContentAsString().split("\n");
+        assertThat(response.getContentType()).startsWith("application/x-ndjson");
+        assertThat(lines).hasSize(6);
+        var first = objectMapper.readTree(lines[0]);
+        assertThat(first.get("tags").get("index").asText()).isEqualTo("0");
+        assertThat(first.get("lastUpdate").isNumber()).isTrue();
+        assertThat(objectMapper.readTree(lines[5]).get("nextCursor").asText()).isEqualTo("5");
+    }
+
+    private JsonNode get(String device, String prefix, List<String> tags, int limit, String cursor, String format)
+            throws Exception {
+        var response = new MockHttpServletResponse();
+        controller.getCache(device, prefix, tags, limit, cursor, format, null, response);
+        return objectMapper.readTree(response.getContentAsString());
+    }
+}
@@ -0,0 +1,236 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MeterHandlesTest {
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SeriesStore seriesStore = new SeriesStore();
+
+    private MeterHandles meterHandles() {
+        return new MeterHandles(meterRegistry, seriesStore, properties);
+    }
+
+    private Set<String> names() {
+        var names = new HashSet<String>();
+        seriesStore.forEach((id, key, value, lastUpdate) -> names.add(key.getName()));
+        return names;
+    }
+
+    private double counter(String name, String reason) {
+        return meterRegistry.counter(name, "reason", reason).count();
+    }
+
+    @Test
+    public void rejectsNewSeriesBeyondDeviceCap() {
+        properties.getSeries().setMaxSeriesPerDevice(2);
+        var meterHandles = meterHandles();
+        var delta = meterHandles.forDevice(new Device("delta", "SN1"));
+        var river = meterHandles.forDevice(new Device("river", "SN2"));
+
+        delta.setValue("a", 1);
+        delta.setValue("b", 2);
+        delta.setValue("c", 3);
+        river.setValue("a", 4);
+        delta.setValue("a", 5);
+
+        assertThat(seriesStore.size()).isEqualTo(3);
+        assertThat(delta.getSeriesCount()).isEqualTo(2);
+        assertThat(counter("ecoflow_series_rejected_total", "device_cap")).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsNewSeriesBeyondGlobalCap() {
+        properties.getSeries().setMaxSeries(2);
+        var meterHandles = meterHandles();
+        var delta = meterHandles.forDevice(new Device("delta", "SN1"));
+        var river = meterHandles.forDevice(new Device("river", "SN2"));
+
+        delta.setValue("a", 1);
+        river.setValue("a", 2);
+        river.setValue("b", 3);
+
+        assertThat(seriesStore.size()).isEqualTo(2);
+        assertThat(river.getSeriesCount()).isEqualTo(1);
+        assertThat(counter("ecoflow_series_rejected_total", "global_cap")).isEqualTo(1);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUpdatedSeries() throws Exception {
+        properties.getSeries().setMaxSeriesPerDevice(3);
+        properties.getSeries().setOverflowPolicy(SeriesOverflowPolicy.EVICT_LEAST_RECENT);
+        var device = meterHandles().forDevice(new Device("delta", "SN1"));
+        for (String name : new String[]{"a", "b", "c"}) {
+            device.setValue(name, 1);
+            Thread.sleep(2);
+        }
+        device.setValue("a", 2);
+        Thread.sleep(2);
+
+        device.setValue("d", 1);
+        assertThat(names()).containsExactlyInAnyOrder("ecoflow_a", "ecoflow_c", "ecoflow_d");
+        Thread.sleep(2);
+        device.setValue("e", 1);
+        assertThat(names()).containsExactlyInAnyOrder("ecoflow_a", "ecoflow_d", "ecoflow_e");
+        assertThat(counter("ecoflow_series_evicted_total", "cap")).isEqualTo(2);
+        assertThat(device.getSeriesCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void neverEvictsSeriesPinnedWithZeroTtl() throws Exception {
+        properties.getSeries().setMaxSeriesPerDevice(2);
+        properties.getSeries().setOverflowPolicy(SeriesOverflowPolicy.EVICT_LEAST_RECENT);
+        properties.getSeries().getTtl().put("ecoflow_online", Duration.ZERO);
+        var device = meterHandles().forDevice(new Device("delta", "SN1"));
+        device.setValue("online", 1);
+        for (String name : new String[]{"a", "b", "c"}) {
+            Thread.sleep(2);
+            device.setValue(name, 1);
+        }
+
+        assertThat(names()).containsExactlyInAnyOrder("ecoflow_online", "ecoflow_c");
+        assertThat(counter("ecoflow_series_evicted_total", "cap")).isEqualTo(2);
+        assertThat(device.getSeriesCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void evictsAcrossDevicesForGlobalCap() throws Exception {
+        properties.getSeries().setMaxSeries(2);
+        properties.getSeries().setOverflowPolicy(SeriesOverflowPolicy.EVICT_LEAST_RECENT);
+        var meterHandles = meterHandles();
+        var delta = meterHandles.forDevice(new Device("delta", "SN1"));
+        var river = meterHandles.forDevice(new Device("river", "SN2"));
+
+        delta.setValue("a", 1);
+        Thread.sleep(2);
+        river.setValue("b", 1);
+        Thread.sleep(2);
+        river.setValue("c", 1);
+
+        assertThat(names()).containsExactlyInAnyOrder("ecoflow_b", "ecoflow_c");
+        assertThat(delta.getSeriesCount()).isZero();
+        assertThat(river.getSeriesCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void removedIndexedAndSerialSeriesAreRegisteredAgain() {
+        var meterHandles = meterHandles();
+        var device = meterHandles.forDevice(new Device("delta", "SN1"));
+        device.setIndexedValue("bms_temp", 1, 30);
+        device.setSerialValue("pv_watts", "PV1", 100);
+        for (SeriesHandle handle : new ArrayList<>(meterHandles.getSeries())) {
+            assertThat(meterHandles.remove(handle)).isTrue();
+        }
+        assertThat(device.getSeriesCount()).isZero();
+
+        device.setIndexedValue("bms_temp", 1, 31);
+        device.setSerialValue("pv_watts", "PV1", 101);
+
+        assertThat(names()).containsExactlyInAnyOrder("ecoflow_bms_temp", "ecoflow_pv_watts");
+        assertThat(device.getSeriesCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void retireRemovesSeriesAndIgnoresLateUpdates() {
+        var meterHandles = meterHandles();
+        var delta = new Device("delta", "SN1");
+        var river = new Device("river", "SN2");
+        var deltaMeters = meterHandles.forDevice(delta);
+        deltaMeters.setValue("online", 1);
+        deltaMeters.setIndexedValue("bms_temp", 1, 30);
+        meterHandles.setValue("ecoflow_offgrid", Tags.of("device", "delta"), 0);
+        meterHandles.forDevice(river).setValue("online", 1);
+
+        assertThat(meterHandles.retire(delta)).isEqualTo(3);
+        assertThat(seriesStore.size()).isEqualTo(1);
+        assertThat(meterRegistry.find("ecoflow_mqtt_messages_receive_total").tag("device", "delta").counter())
+                .isNull();
+
+        // a pipeline worker still processing a message of the device
+        deltaMeters.setValue("pd_watts", 10);
+        meterHandles.forDevice(delta).setValue("online", 1);
+        assertThat(meterHandles.forDevice(delta)).isSameAs(deltaMeters);
+        assertThat(seriesStore.size()).isEqualTo(1);
+        assertThat(meterHandles.retire(delta)).isZero();
+
+        // the device came back
+        meterHandles.admit(delta);
+        meterHandles.forDevice(delta).setValue("online", 1);
+        assertThat(meterHandles.forDevice(delta)).isNotSameAs(deltaMeters);
+        assertThat(names()).containsExactly("ecoflow_online");
+        assertThat(seriesStore.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void seriesRemovedWhileRegisteringLeaveNoFamilyEntry() throws Exception {
+        var meterHandles = meterHandles();
+        var device = meterHandles.forDevice(new Device("delta", "SN1"));
+        var done = new AtomicBoolean();
+        var remover = new Thread(() -> {
+            while (!done.get()) {
+                meterHandles.getSeries().forEach(meterHandles::remove);
+            }
+        });
+        remover.start();
+        for (int i = 0; i < 20_000; i++) {
+            device.setValue("m" + i % 50, i);
+        }
+        done.set(true);
+        remover.join();
+        meterHandles.getSeries().forEach(meterHandles::remove);
+
+        for (MetricFamily family : meterHandles.getFamilies()) {
+            assertThat(family.getSeries()).isEmpty();
+        }
+        assertThat(device.getSeriesCount()).isZero();
+    }
+
+    @Test
+    public void concurrentRegistrationsStayWithinCaps() throws Exception {
+        properties.getSeries().setMaxSeries(500);
+        properties.getSeries().setMaxSeriesPerDevice(300);
+        var meterHandles = meterHandles();
+        var devices = new DeviceMeters[]{
+                meterHandles.forDevice(new Device("delta", "SN1")),
+                meterHandles.forDevice(new Device("river", "SN2"))};
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            var thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    devices[i % 2].setValue("m" + (i * 8 + offset) % 2000, i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(seriesStore.size()).isEqualTo(500);
+        assertThat(devices[0].getSeriesCount()).isLessThanOrEqualTo(300);
+        assertThat(devices[1].getSeriesCount()).isLessThanOrEqualTo(300);
+        assertThat(devices[0].getSeriesCount() + devices[1].getSeriesCount()).isEqualTo(500);
+    }
+}
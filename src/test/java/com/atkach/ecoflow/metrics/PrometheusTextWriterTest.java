@@ -0,0 +1,100 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrometheusTextWriterTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SeriesStore seriesStore = new SeriesStore();
+    private final MeterHandles meterHandles = new MeterHandles(meterRegistry, seriesStore, new EcoflowProperties());
+    private final PrometheusTextWriter writer = new PrometheusTextWriter(meterHandles, seriesStore);
+
+    private String write(boolean openMetrics) throws Exception {
+        var out = new ByteArrayOutputStream();
+        writer.write(out, openMetrics);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void escapesLabelValues() throws Exception {
+        meterHandles.setValue("ecoflow_online", Tags.of("device", "back\\slash \"quoted\"\nnext line"), 1);
+
+        assertThat(write(false))
+                .contains("ecoflow_online{device=\"back\\\\slash \\\"quoted\\\"\\nnext line\"} 1\n");
+    }
+
+    @Test
+    public void writesSpecialValues() throws Exception {
+        var device = meterHandles.forDevice(new Device("delta", "SN1"));
+        device.setValue("nan", Double.NaN);
+        device.setValue("positive", Double.POSITIVE_INFINITY);
+        device.setValue("negative", Double.NEGATIVE_INFINITY);
+        device.setValue("integral", -42);
+        device.setValue("fraction", 0.25);
+
+        assertThat(write(false))
+                .contains("ecoflow_nan{device=\"delta\"} NaN\n")
+                .contains("ecoflow_positive{device=\"delta\"} +Inf\n")
+                .contains("ecoflow_negative{device=\"delta\"} -Inf\n")
+                .contains("ecoflow_integral{device=\"delta\"} -42\n")
+                .contains("ecoflow_fraction{device=\"delta\"} 0.25\n");
+    }
+
+    @Test
+    public void writesHelpAndTypeOncePerFamilyBeforeItsSeries() throws Exception {
+        meterHandles.forDevice(new Device("delta", "SN1")).setValue("bms_soc", 42);
+        meterHandles.forDevice(new Device("river", "SN2")).setValue("bms_soc", 43);
+        meterHandles.forDevice(new Device("river", "SN2")).setValue("pd_watts", 100);
+
+        var lines = write(true).split("\n");
+
+        int help = indexOf(lines, "# HELP ecoflow_bms_soc ");
+        assertThat(lines[help + 1]).isEqualTo("# TYPE ecoflow_bms_soc gauge");
+        assertThat(lines[help + 2]).startsWith("ecoflow_bms_soc{");
+        assertThat(lines[help + 3]).startsWith("ecoflow_bms_soc{");
+        int pdHelp = indexOf(lines, "# HELP ecoflow_pd_watts ");
+        assertThat(lines[pdHelp + 1]).isEqualTo("# TYPE ecoflow_pd_watts gauge");
+        assertThat(lines[pdHelp + 2]).isEqualTo("ecoflow_pd_watts{device=\"river\"} 100");
+        assertThat(lines).hasSize(8);
+        assertThat(lines[7]).isEqualTo("# EOF");
+    }
+
+    @Test
+    public void registersSeriesForTheActuatorByDefault() {
+        meterHandles.forDevice(new Device("delta", "SN1")).setValue("bms_soc", 42);
+
+        assertThat(meterRegistry.find("ecoflow_bms_soc").tag("device", "delta").gauge().value()).isEqualTo(42.0);
+    }
+
+    @Test
+    public void keepsSeriesOutOfTheMeterRegistryWithoutActuatorSeries() throws Exception {
+        var properties = new EcoflowProperties();
+        properties.getScrape().setActuatorSeries(false);
+        var registry = new SimpleMeterRegistry();
+        var store = new SeriesStore();
+        var handles = new MeterHandles(registry, store, properties);
+        handles.forDevice(new Device("delta", "SN1")).setValue("bms_soc", 42);
+
+        assertThat(registry.find("ecoflow_bms_soc").meters()).isEmpty();
+        var out = new ByteArrayOutputStream();
+        new PrometheusTextWriter(handles, store).write(out, false);
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains("ecoflow_bms_soc{device=\"delta\"} 42\n");
+    }
+
+    private static int indexOf(String[] lines, String line) {
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].equals(line)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Missing line " + line);
+    }
+}
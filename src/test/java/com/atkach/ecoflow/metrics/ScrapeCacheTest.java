@@ -0,0 +1,72 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScrapeCacheTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SeriesStore seriesStore = new SeriesStore();
+    private final MeterHandles meterHandles = new MeterHandles(meterRegistry, seriesStore, properties);
+    private final ScrapeCache scrapeCache = new ScrapeCache(new PrometheusTextWriter(meterHandles, seriesStore),
+            seriesStore, properties, meterRegistry);
+    private final DeviceMeters device = meterHandles.forDevice(new Device("delta", "SN1"));
+
+    @Test
+    public void reusesBodyWhileNothingChanged() throws Exception {
+        device.setValue("bms_soc", 42);
+
+        var first = scrapeCache.body(false, false);
+        var second = scrapeCache.body(false, false);
+
+        assertThat(second).isSameAs(first);
+        assertThat(new String(first, StandardCharsets.UTF_8))
+                .contains("# TYPE ecoflow_bms_soc gauge\n")
+                .contains("ecoflow_bms_soc{device=\"delta\"} 42\n");
+        assertThat(meterRegistry.counter("ecoflow_scrape_cache_requests_total", "result", "hit").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void rendersAgainAfterWrite() throws Exception {
+        device.setValue("bms_soc", 42);
+        var first = scrapeCache.body(false, false);
+
+        device.setValue("bms_soc", 43.5);
+        var second = scrapeCache.body(false, false);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(new String(second, StandardCharsets.UTF_8)).contains("ecoflow_bms_soc{device=\"delta\"} 43.5\n");
+    }
+
+    @Test
+    public void gzipBodyMatchesPlainOne() throws Exception {
+        device.setValue("bms_soc", 42);
+
+        var plain = scrapeCache.body(true, false);
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(scrapeCache.body(true, true)))) {
+            assertThat(gzip.readAllBytes()).isEqualTo(plain);
+        }
+        assertThat(new String(plain, StandardCharsets.UTF_8)).endsWith("# EOF\n");
+    }
+
+    @Test
+    public void unchangedValueKeepsCachedBody() throws Exception {
+        device.setValue("bms_soc", 42);
+        var first = scrapeCache.body(false, false);
+
+        device.setValue("bms_soc", 42);
+
+        assertThat(scrapeCache.body(false, false)).isSameAs(first);
+        assertThat(meterRegistry.get("ecoflow_value_updates_total").tags("kind", "series", "result", "unchanged")
+                .functionCounter().count()).isGreaterThanOrEqualTo(1);
+    }
+}
@@ -0,0 +1,59 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SeriesLifecycleTest {
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SeriesStore seriesStore = new SeriesStore();
+    private final MeterHandles meterHandles = new MeterHandles(meterRegistry, seriesStore, properties);
+
+    private SeriesLifecycle lifecycle() {
+        return new SeriesLifecycle(meterHandles, seriesStore, properties, meterRegistry);
+    }
+
+    @Test
+    public void resolvesTtlByLongestPrefix() {
+        properties.getSeries().setDefaultTtl(Duration.ofMinutes(10));
+        properties.getSeries().getTtl().put("ecoflow_bms", Duration.ofMinutes(1));
+        properties.getSeries().getTtl().put("ecoflow_bms_soc", Duration.ZERO);
+        var lifecycle = lifecycle();
+        long now = System.nanoTime();
+        long twoMinutesAgo = now - TimeUnit.MINUTES.toNanos(2);
+
+        assertThat(lifecycle.isExpired("ecoflow_bms_temp", twoMinutesAgo, now)).isTrue();
+        assertThat(lifecycle.isExpired("ecoflow_bms_soc", twoMinutesAgo, now)).isFalse();
+        assertThat(lifecycle.isExpired("ecoflow_pd_watts", twoMinutesAgo, now)).isFalse();
+        assertThat(lifecycle.isExpired("ecoflow_pd_watts", now - TimeUnit.MINUTES.toNanos(11), now)).isTrue();
+    }
+
+    @Test
+    public void evictsSeriesPastTheirTtl() throws Exception {
+        properties.getSeries().setDefaultTtl(Duration.ofMillis(1));
+        properties.getSeries().getTtl().put("ecoflow_online", Duration.ZERO);
+        var lifecycle = lifecycle();
+        var device = meterHandles.forDevice(new Device("delta", "SN1"));
+        device.setValue("bms_soc", 42);
+        meterHandles.setValue("ecoflow_online", Tags.of("device", "delta"), 1);
+        Thread.sleep(20);
+
+        lifecycle.evictStaleSeries();
+
+        assertThat(seriesStore.size()).isEqualTo(1);
+        assertThat(device.getSeriesCount()).isZero();
+        assertThat(meterRegistry.counter("ecoflow_series_evicted_total", "reason", "stale").count()).isEqualTo(1);
+
+        device.setValue("bms_soc", 43);
+        assertThat(seriesStore.size()).isEqualTo(2);
+        assertThat(device.getSeriesCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,125 @@
+package com.atkach.ecoflow.metrics;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SeriesSnapshotTest {
+    @TempDir
+    Path dir;
+
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final Device delta = new Device("delta", "SN1", "site-a");
+
+    private class Exporter {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final SeriesStore seriesStore = new SeriesStore();
+        final MeterHandles meterHandles = new MeterHandles(meterRegistry, seriesStore, properties);
+        final SeriesLifecycle lifecycle = new SeriesLifecycle(meterHandles, seriesStore, properties, meterRegistry);
+
+        List<Device> devices = List.of(delta);
+
+        SeriesSnapshot snapshot() {
+            return new SeriesSnapshot(meterHandles, seriesStore, lifecycle, devices, properties, meterRegistry);
+        }
+
+        Map<String, Double> values() {
+            var values = new HashMap<String, Double>();
+            seriesStore.forEach((id, key, value, lastUpdate) -> values.put(key.getName() + key.getTags(), value));
+            return values;
+        }
+    }
+
+    @Test
+    public void restoresSeriesWithTheirOwnersAndAge() throws Exception {
+        properties.getSnapshot().setPath(dir.resolve("series.snapshot").toString());
+        var before = new Exporter();
+        before.meterHandles.forDevice(delta).setValue("bms_soc", 42.5);
+        before.meterHandles.forDevice(delta).setIndexedValue("bms_temp", 1, 30);
+        before.meterHandles.setValue("ecoflow_offgrid", Tags.of("device", "delta"), 1);
+        assertThat(before.snapshot().write()).isEqualTo(3);
+
+        var after = new Exporter();
+        after.snapshot();
+
+        assertThat(after.values()).isEqualTo(before.values());
+        assertThat(after.meterHandles.forDevice(delta).getSeriesCount()).isEqualTo(2);
+        after.seriesStore.forEach((id, key, value, lastUpdate) ->
+                assertThat(System.nanoTime() - lastUpdate).isLessThan(TimeUnit.SECONDS.toNanos(10)));
+        assertThat(after.meterRegistry.counter("ecoflow_snapshot_restored_series_total", "result", "restored")
+                .count()).isEqualTo(3);
+    }
+
+    @Test
+    public void skipsSeriesPastTheirTtl() throws Exception {
+        properties.getSnapshot().setPath(dir.resolve("series.snapshot").toString());
+        properties.getSeries().setDefaultTtl(Duration.ofMillis(1));
+        var before = new Exporter();
+        before.meterHandles.forDevice(delta).setValue("bms_soc", 42);
+        before.snapshot().write();
+        Thread.sleep(20);
+
+        var after = new Exporter();
+        after.snapshot();
+
+        assertThat(after.seriesStore.size()).isZero();
+        assertThat(after.meterRegistry.counter("ecoflow_snapshot_restored_series_total", "result", "expired")
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    public void skipsSeriesOfDevicesNoLongerOwned() throws Exception {
+        properties.getSnapshot().setPath(dir.resolve("series.snapshot").toString());
+        var river = new Device("river", "SN2", "site-a");
+        var before = new Exporter();
+        before.devices = List.of(delta, river);
+        for (Device device : before.devices) {
+            before.meterHandles.forDevice(device).setValue("online", 1);
+            before.meterHandles.setValue("ecoflow_offgrid",
+                    Tags.of("device", device.getName(), "account", device.getAccount()), 0);
+        }
+        before.meterHandles.setValue("ecoflow_build_info", Tags.of("version", "1"), 1);
+        assertThat(before.snapshot().write()).isEqualTo(5);
+
+        // river left the account or moved to another shard
+        var after = new Exporter();
+        after.snapshot();
+
+        var expected = new HashMap<>(before.values());
+        expected.keySet().removeIf(key -> key.contains("river"));
+        assertThat(expected).hasSize(3);
+        assertThat(after.values()).isEqualTo(expected);
+        assertThat(after.meterRegistry.counter("ecoflow_snapshot_restored_series_total", "result", "unknown_device")
+                .count()).isEqualTo(2);
+    }
+
+    @Test
+    public void startsEmptyOnTruncatedSnapshot() throws Exception {
+        var path = dir.resolve("series.snapshot");
+        properties.getSnapshot().setPath(path.toString());
+        var before = new Exporter();
+        before.meterHandles.forDevice(delta).setValue("bms_soc", 42);
+        before.snapshot().write();
+        var bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, 12));
+
+        var after = new Exporter();
+        after.snapshot();
+
+        assertThat(after.seriesStore.size()).isZero();
+    }
+}
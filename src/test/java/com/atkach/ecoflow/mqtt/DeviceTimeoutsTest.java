@@ -0,0 +1,85 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.metrics.MeterHandles;
+import com.atkach.ecoflow.metrics.SeriesStore;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeviceTimeoutsTest {
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SeriesStore seriesStore = new SeriesStore();
+    private MeterHandles meterHandles;
+    private DeviceTimeouts deviceTimeouts;
+
+    @BeforeEach
+    public void setUp() {
+        properties.setOfflineTimeout(Duration.ofMillis(50));
+        properties.setOffgridTimeout(Duration.ofMinutes(1));
+        properties.setTimeoutResolution(Duration.ofMillis(10));
+        meterHandles = new MeterHandles(new SimpleMeterRegistry(), seriesStore, properties);
+        deviceTimeouts = new DeviceTimeouts(properties, meterHandles);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deviceTimeouts.shutdown();
+    }
+
+    private Map<String, Double> values() {
+        var values = new HashMap<String, Double>();
+        seriesStore.forEach((id, key, value, lastUpdate) -> values.put(key.getName(), value));
+        return values;
+    }
+
+    /**
+     * What discovery does for a removed device.
+     */
+    private void remove(Device device) {
+        meterHandles.retire(device);
+        deviceTimeouts.forget(device);
+    }
+
+    @Test
+    public void removedDeviceLosesItsSeriesAndTimeouts() throws Exception {
+        var delta = new Device("delta", "SN1");
+        deviceTimeouts.onMessage(delta);
+        meterHandles.forDevice(delta).setValue("inv_status_ac_in_vol", 230);
+        assertThat(values()).containsOnlyKeys("ecoflow_online", "ecoflow_inv_status_ac_in_vol", "ecoflow_offgrid");
+
+        remove(delta);
+        assertThat(seriesStore.size()).isZero();
+
+        // past the offline timeout, neither timeout may bring a series back
+        Thread.sleep(150);
+        assertThat(seriesStore.size()).isZero();
+    }
+
+    @Test
+    public void messageInFlightDoesNotTrackRemovedDevice() throws Exception {
+        var delta = new Device("delta", "SN1");
+        deviceTimeouts.track(delta);
+        remove(delta);
+
+        deviceTimeouts.onMessage(delta);
+        Thread.sleep(150);
+        deviceTimeouts.onMessage(delta);
+        assertThat(seriesStore.size()).isZero();
+
+        // the device came back
+        meterHandles.admit(delta);
+        deviceTimeouts.track(delta);
+        assertThat(values()).containsEntry("ecoflow_online", 1.0);
+        Thread.sleep(150);
+        assertThat(values()).containsEntry("ecoflow_online", 0.0);
+    }
+}
@@ -0,0 +1,65 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.atkach.ecoflow.mqtt.MessageDiagnostics.Reason.INVALID_NAME;
+import static com.atkach.ecoflow.mqtt.MessageDiagnostics.Reason.NO_HANDLER;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageDiagnosticsTest {
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void logsEachProblemOncePerWindow() {
+        var diagnostics = new MessageDiagnostics(properties, meterRegistry);
+        var logged = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            diagnostics.report("delta", "pd_new_field", NO_HANDLER, () -> "detail " + logged.incrementAndGet());
+        }
+        diagnostics.report("delta", "pd_other_field", NO_HANDLER, () -> "detail " + logged.incrementAndGet());
+
+        assertThat(logged).hasValue(2);
+        var problems = diagnostics.getProblems();
+        assertThat(problems).hasSize(2);
+        var repeated = problems.stream().filter(p -> p.parameter().equals("pd_new_field")).findFirst().orElseThrow();
+        assertThat(repeated.count()).isEqualTo(100);
+        assertThat(repeated.detail()).isEqualTo("detail 1");
+        assertThat(meterRegistry.counter("ecoflow_diagnostics_suppressed_total", "reason", "no_handler").count())
+                .isEqualTo(99);
+    }
+
+    @Test
+    public void logsAgainAfterTheWindow() {
+        properties.getDiagnostics().setWindow(Duration.ZERO);
+        var diagnostics = new MessageDiagnostics(properties, meterRegistry);
+        var logged = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            diagnostics.report("delta", "1st-param", INVALID_NAME, () -> "detail " + logged.incrementAndGet());
+        }
+
+        assertThat(logged).hasValue(3);
+    }
+
+    @Test
+    public void tracksAtMostMaxKeys() {
+        properties.getDiagnostics().setMaxKeys(2);
+        properties.getDiagnostics().setMaxDetailLength(4);
+        var diagnostics = new MessageDiagnostics(properties, meterRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            diagnostics.report("delta", "param_" + i, NO_HANDLER, () -> "long detail");
+        }
+
+        assertThat(diagnostics.getProblems()).hasSize(2)
+                .allSatisfy(p -> assertThat(p.detail()).isEqualTo("long... (11 chars)"));
+        assertThat(meterRegistry.counter("ecoflow_diagnostics_untracked_total").count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,72 @@
+package com.atkach.ecoflow.mqtt;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricNameResolverTest {
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private double requests(String result) {
+        return meterRegistry.counter("ecoflow_name_cache_requests_total", "result", result).count();
+    }
+
+    @Test
+    public void cachesResolvedNames() {
+        var resolver = new MetricNameResolver(meterRegistry, properties);
+
+        var name = resolver.resolve("pd", "wattsInSum");
+        assertThat(name.isValid()).isTrue();
+        assertThat(name.getName()).isEqualTo("pd_watts_in_sum");
+        assertThat(resolver.resolve("pd", "wattsInSum")).isSameAs(name);
+        assertThat(resolver.resolve("bmsStatus", "sysVer").getVerdict()).isEqualTo(MetricNameResolver.Verdict.SKIP);
+        assertThat(resolver.resolve(null, "1st").getVerdict()).isEqualTo(MetricNameResolver.Verdict.INVALID);
+        assertThat(resolver.resolveElement("bms_status_batteries", "sn").getVerdict())
+                .isEqualTo(MetricNameResolver.Verdict.SKIP);
+
+        assertThat(requests("hit")).isEqualTo(1);
+        assertThat(requests("miss")).isEqualTo(4);
+        assertThat(resolver.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void evictsEntriesNotHitSinceTheHandPassed() {
+        properties.getNameCache().setMaxSize(3);
+        var resolver = new MetricNameResolver(meterRegistry, properties);
+        resolver.resolve("pd", "a");
+        resolver.resolve("pd", "b");
+        resolver.resolve("pd", "c");
+        resolver.resolve("pd", "a");
+
+        resolver.resolve("pd", "d");
+
+        assertThat(resolver.size()).isEqualTo(3);
+        assertThat(meterRegistry.counter("ecoflow_name_cache_evictions_total").count()).isEqualTo(1);
+        double misses = requests("miss");
+        resolver.resolve("pd", "a");
+        resolver.resolve("pd", "c");
+        resolver.resolve("pd", "d");
+        assertThat(requests("miss")).isEqualTo(misses);
+        resolver.resolve("pd", "b");
+        assertThat(requests("miss")).isEqualTo(misses + 1);
+        assertThat(resolver.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void staysWithinMaxSizeForUnboundedTypeCodes() {
+        properties.getNameCache().setMaxSize(100);
+        var resolver = new MetricNameResolver(meterRegistry, properties);
+
+        for (int i = 0; i < 10_000; i++) {
+            resolver.resolve("type" + i, "value");
+            resolver.resolveElement("list" + i, "value");
+        }
+
+        assertThat(resolver.size()).isEqualTo(100);
+        assertThat(resolver.prefixes()).isEqualTo(100);
+        assertThat(meterRegistry.counter("ecoflow_name_cache_evictions_total").count()).isEqualTo(19_900);
+    }
+}
@@ -0,0 +1,130 @@
+package com.atkach.ecoflow.mqtt.decoder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QuotaMessageDecoderTest {
+    private final QuotaMessageDecoder decoder = new QuotaMessageDecoder(new ObjectMapper());
+
+    private static class RecordingSink implements QuotaSink {
+        final List<String> values = new ArrayList<>();
+        final List<Object> complexValues = new ArrayList<>();
+        long time;
+
+        @Override
+        public void onTime(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public String resolveName(String typeCode, String key) {
+            return key.endsWith("Ver") ? null : typeCode + "_" + key;
+        }
+
+        @Override
+        public String resolveElementName(String name, String key) {
+            return name + "_" + key;
+        }
+
+        @Override
+        public void onValue(String name, double value) {
+            values.add(name + "=" + value);
+        }
+
+        @Override
+        public void onIndexedValue(String name, int index, double value) {
+            values.add(name + "[" + index + "]=" + value);
+        }
+
+        @Override
+        public void onSerialValue(String name, String serial, double value) {
+            values.add(name + "{" + serial + "}=" + value);
+        }
+
+        @Override
+        public void onComplexValue(String name, Object value) {
+            values.add(name + "?");
+            complexValues.add(value);
+        }
+    }
+
+    private RecordingSink decode(String json) throws Exception {
+        var sink = new RecordingSink();
+        assertThat(decoder.decode(json.getBytes(StandardCharsets.UTF_8), sink)).isTrue();
+        return sink;
+    }
+
+    @Test
+    public void testScalarsAndTypeCodeAfterParams() throws Exception {
+        var sink = decode("{\"params\":{\"soc\":87,\"sysVer\":{\"a\":1},\"temp\":21.5},\"typeCode\":\"pd\"}");
+
+        assertThat(sink.values).containsExactly("pd_soc=87.0", "pd_temp=21.5");
+    }
+
+    @Test
+    public void testTimeAfterParams() throws Exception {
+        var sink = decode("{\"typeCode\":\"pd\",\"params\":{\"soc\":87},\"timestamp\":1729166400123}");
+
+        assertThat(sink.values).containsExactly("pd_soc=87.0");
+        assertThat(sink.time).isEqualTo(1729166400123L);
+    }
+
+    @Test
+    public void testLists() throws Exception {
+        var sink = decode("{\"typeCode\":\"bms\",\"params\":{"
+                + "\"cells\":[3301,3302.5],"
+                + "\"slaves\":[{\"soc\":60,\"sn\":\"A1\"},{\"sn\":\"\",\"soc\":1},{\"sn\":\"B2\",\"soc\":61}],"
+                + "\"empty\":[]}}");
+
+        assertThat(sink.values).containsExactly(
+                "bms_cells[0]=3301.0", "bms_cells[1]=3302.5",
+                "bms_slaves_soc{A1}=60.0", "bms_slaves_soc{B2}=61.0");
+    }
+
+    @Test
+    public void testUnsupportedShapesAreMaterialized() throws Exception {
+        var sink = decode("{\"typeCode\":\"x\",\"param\":{"
+                + "\"mixed\":[1,{\"sn\":\"A\",\"v\":[1,2]},\"s\"],"
+                + "\"noSerial\":[{\"v\":1}],"
+                + "\"text\":\"abc\","
+                + "\"after\":5}}");
+
+        assertThat(sink.values).containsExactly("x_mixed?", "x_noSerial?", "x_text?", "x_after=5.0");
+        assertThat(sink.complexValues).containsExactly(
+                List.of(1, Map.of("sn", "A", "v", List.of(1, 2)), "s"),
+                List.of(Map.of("v", 1)),
+                "abc");
+    }
+
+    @Test
+    public void testRejectedComplexValuesAreNotMaterialized() throws Exception {
+        var raw = new ArrayList<String>();
+        var sink = new RecordingSink() {
+            @Override
+            public boolean acceptComplexValue(String name, byte[] payload, int offset, int length) {
+                raw.add(new String(payload, offset, length, StandardCharsets.UTF_8));
+                return !name.equals("x_same");
+            }
+        };
+        decoder.decode(("{\"typeCode\":\"x\",\"params\":{"
+                + "\"same\":{\"a\":[1,2]},"
+                + "\"mixed\":[1, \"s\"],"
+                + "\"after\":5}}").getBytes(StandardCharsets.UTF_8), sink);
+
+        assertThat(raw).containsExactly("{\"a\":[1,2]}", "[1, \"s\"]");
+        assertThat(sink.values).containsExactly("x_mixed?", "x_after=5.0");
+    }
+
+    @Test
+    public void testMessageWithoutParameters() throws Exception {
+        assertThat(decoder.decode("{\"typeCode\":\"x\",\"params\":null}".getBytes(StandardCharsets.UTF_8),
+                new RecordingSink())).isFalse();
+    }
+}
@@ -0,0 +1,132 @@
+package com.atkach.ecoflow.mqtt.handlers;
+
+import com.atkach.ecoflow.api.dto.Device;
+import com.atkach.ecoflow.mqtt.MetricNameResolver;
+import com.atkach.ecoflow.mqtt.MetricValue;
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HandlerDispatcherTest {
+    private static final Device RIVER = new Device("river", "R331ZEB4ZE123456");
+    private static final Device DELTA = new Device("delta", "R351ZFB4HF654321");
+
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final List<MetricsHandler> handlers = new ArrayList<>(List.of(new SingleValueHandler(),
+            new SingleValueArrayHandler(),
+            new MultiValueArrayHandler(new MetricNameResolver(new SimpleMeterRegistry(), properties))));
+
+    @Test
+    public void routesByShape() {
+        var dispatcher = new HandlerDispatcher(handlers, properties);
+
+        assertThat(dispatcher.getMetrics(RIVER, "soc", 42))
+                .containsExactly(new MetricValue("soc", 42, List.of()));
+        assertThat(dispatcher.getMetrics(RIVER, "cell_vol", List.of(3351, 3349L)))
+                .containsExactly(new MetricValue("cell_vol", 3351, List.of(Tag.of("index", "0"))),
+                        new MetricValue("cell_vol", 3349, List.of(Tag.of("index", "1"))));
+        assertThat(dispatcher.getMetrics(RIVER, "bms", List.of(Map.of("sn", "B1", "soc", 64))))
+                .containsExactly(new MetricValue("bms_soc", 64, List.of(Tag.of("sn", "B1"))));
+        assertThat(dispatcher.getMetrics(RIVER, "mixed", List.of(1, Map.of()))).isNull();
+        assertThat(dispatcher.getMetrics(RIVER, "text", "on")).isNull();
+    }
+
+    @Test
+    public void restrictedHandlerTakesPrecedenceForItsDevices() {
+        handlers.add(new RiverSocHandler());
+        var dispatcher = new HandlerDispatcher(handlers, properties);
+
+        assertThat(dispatcher.hasRestrictedHandler(RIVER, "pd_soc")).isTrue();
+        assertThat(dispatcher.hasRestrictedHandler(DELTA, "pd_soc")).isFalse();
+        assertThat(dispatcher.hasRestrictedHandler(RIVER, "pd_watts")).isFalse();
+        assertThat(dispatcher.getMetrics(RIVER, "pd_soc", 42))
+                .containsExactly(new MetricValue("pd_soc_percent", 42, List.of()));
+        assertThat(dispatcher.getMetrics(DELTA, "pd_soc", 42))
+                .containsExactly(new MetricValue("pd_soc", 42, List.of()));
+    }
+
+    @Test
+    public void multiDispatchCollectsAllAcceptingHandlers() {
+        handlers.add(new RiverSocHandler());
+        properties.getHandlers().setMultiDispatch(true);
+        var dispatcher = new HandlerDispatcher(handlers, properties);
+
+        assertThat(dispatcher.getMetrics(RIVER, "pd_soc", 42))
+                .containsExactly(new MetricValue("pd_soc", 42, List.of()),
+                        new MetricValue("pd_soc_percent", 42, List.of()));
+    }
+
+    @Test
+    public void multiDispatchFansNumbersOutToAllUnrestrictedHandlers() {
+        handlers.add(new WattsHandler());
+        var dispatcher = new HandlerDispatcher(handlers, properties);
+        assertThat(dispatcher.decodesInline(RIVER, "pd_watts")).isTrue();
+
+        properties.getHandlers().setMultiDispatch(true);
+        dispatcher = new HandlerDispatcher(handlers, properties);
+
+        assertThat(dispatcher.decodesInline(RIVER, "pd_watts")).isFalse();
+        assertThat(dispatcher.getMetrics(RIVER, "pd_watts", 120))
+                .containsExactly(new MetricValue("pd_watts", 120, List.of()),
+                        new MetricValue("pd_watts_kw", 0.12, List.of()));
+        assertThat(dispatcher.getMetrics(RIVER, "pd_watts", List.of(100, 20)))
+                .containsExactly(new MetricValue("pd_watts", 100, List.of(Tag.of("index", "0"))),
+                        new MetricValue("pd_watts", 20, List.of(Tag.of("index", "1"))),
+                        new MetricValue("pd_watts_kw", 0.1, List.of(Tag.of("index", "0"))),
+                        new MetricValue("pd_watts_kw", 0.02, List.of(Tag.of("index", "1"))));
+    }
+
+    /**
+     * Unrestricted handler for numbers and numeric lists next to the built-in ones.
+     */
+    private static class WattsHandler implements MetricsHandler {
+        @Override
+        public List<MetricValue> getMetrics(Device device, String name, Object value) {
+            if (value instanceof List<?> list) {
+                var metrics = new ArrayList<MetricValue>();
+                for (int i = 0; i < list.size(); i++) {
+                    metrics.add(new MetricValue(name + "_kw", HandlerUtils.toDouble(list.get(i)) / 1000,
+                            List.of(Tag.of("index", Integer.toString(i)))));
+                }
+                return metrics;
+            }
+            return List.of(new MetricValue(name + "_kw", HandlerUtils.toDouble(value) / 1000, List.of()));
+        }
+
+        @Override
+        public boolean canHandle(Device device, String name, Object value) {
+            var shape = ValueShape.of(value);
+            return shape == ValueShape.NUMBER || shape == ValueShape.NUMBER_LIST;
+        }
+    }
+
+    private static class RiverSocHandler implements MetricsHandler {
+        @Override
+        public List<MetricValue> getMetrics(Device device, String name, Object value) {
+            return List.of(new MetricValue(name + "_percent", HandlerUtils.toDouble(value), List.of()));
+        }
+
+        @Override
+        public boolean canHandle(Device device, String name, Object value) {
+            return value instanceof Number;
+        }
+
+        @Override
+        public Set<String> getNamePrefixes() {
+            return Set.of("pd_soc");
+        }
+
+        @Override
+        public Set<String> getSerialPrefixes() {
+            return Set.of("R331");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.atkach.ecoflow.mqtt.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageRingTest {
+
+    private static RawMessage message(String topic, int id) {
+        return new RawMessage(topic, new byte[]{(byte) id}, id);
+    }
+
+    private static RawMessage quota(String topic, String typeCode, int id) {
+        var payload = "{\"typeCode\":\"" + typeCode + "\",\"params\":{\"n\":" + id + "}}";
+        return new RawMessage(topic, payload.getBytes(StandardCharsets.UTF_8), id);
+    }
+
+    private static List<Long> drain(MessageRing ring) throws InterruptedException {
+        var batch = new ArrayList<RawMessage>();
+        ring.drainTo(batch, 100, 0);
+        return batch.stream().map(RawMessage::getReceivedNanos).toList();
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        var ring = new MessageRing(2);
+        ring.offer(message("a", 1), OverflowPolicy.DROP_OLDEST);
+        ring.offer(message("b", 2), OverflowPolicy.DROP_OLDEST);
+
+        assertThat(ring.offer(message("a", 3), OverflowPolicy.DROP_OLDEST))
+                .isEqualTo(MessageRing.Outcome.DROPPED_OLDEST);
+        assertThat(drain(ring)).containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void testCoalesceReplacesNewestOfSameTopic() throws Exception {
+        var ring = new MessageRing(3);
+        ring.offer(message("a", 1), OverflowPolicy.COALESCE_PER_DEVICE);
+        ring.offer(message("a", 2), OverflowPolicy.COALESCE_PER_DEVICE);
+        ring.offer(message("b", 3), OverflowPolicy.COALESCE_PER_DEVICE);
+
+        assertThat(ring.offer(message("a", 4), OverflowPolicy.COALESCE_PER_DEVICE))
+                .isEqualTo(MessageRing.Outcome.COALESCED);
+        assertThat(drain(ring)).containsExactly(1L, 4L, 3L);
+
+        ring.offer(message("a", 5), OverflowPolicy.COALESCE_PER_DEVICE);
+        ring.offer(message("b", 6), OverflowPolicy.COALESCE_PER_DEVICE);
+        ring.offer(message("b", 7), OverflowPolicy.COALESCE_PER_DEVICE);
+
+        assertThat(ring.offer(message("c", 8), OverflowPolicy.COALESCE_PER_DEVICE))
+                .isEqualTo(MessageRing.Outcome.DROPPED_OLDEST);
+        assertThat(drain(ring)).containsExactly(6L, 7L, 8L);
+    }
+
+    @Test
+    public void testCoalesceKeepsOtherTypeCodesOfDevice() throws Exception {
+        var ring = new MessageRing(2);
+        ring.offer(quota("a", "invStatus", 1), OverflowPolicy.COALESCE_PER_DEVICE);
+        ring.offer(quota("a", "bmsStatus", 2), OverflowPolicy.COALESCE_PER_DEVICE);
+
+        assertThat(ring.offer(quota("a", "invStatus", 3), OverflowPolicy.COALESCE_PER_DEVICE))
+                .isEqualTo(MessageRing.Outcome.COALESCED);
+        assertThat(drain(ring)).containsExactly(3L, 2L);
+
+        ring.offer(quota("a", "invStatus", 4), OverflowPolicy.COALESCE_PER_DEVICE);
+        ring.offer(quota("a", "invStatus", 5), OverflowPolicy.COALESCE_PER_DEVICE);
+
+        assertThat(ring.offer(quota("a", "bmsStatus", 6), OverflowPolicy.COALESCE_PER_DEVICE))
+                .isEqualTo(MessageRing.Outcome.DROPPED_OLDEST);
+        assertThat(drain(ring)).containsExactly(5L, 6L);
+    }
+
+    @Test
+    public void testDrainHonoursBatchSize() throws Exception {
+        var ring = new MessageRing(4);
+        for (int i = 0; i < 4; i++) {
+            ring.offer(message("a", i), OverflowPolicy.BLOCK);
+        }
+
+        var batch = new ArrayList<RawMessage>();
+        assertThat(ring.drainTo(batch, 3, 0)).isEqualTo(3);
+        assertThat(ring.size()).isEqualTo(1);
+    }
+}
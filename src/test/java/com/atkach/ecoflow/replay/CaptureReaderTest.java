@@ -0,0 +1,47 @@
+package com.atkach.ecoflow.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CaptureReaderTest {
+    @TempDir
+    Path dir;
+
+    private final CaptureReader reader = new CaptureReader(new ObjectMapper());
+
+    @Test
+    public void readsJsonAndRawPayloads() throws Exception {
+        var file = dir.resolve("capture.ndjson");
+        Files.writeString(file, """
+                {"topic": "/open/login/SN1/quota", "time": 1729166402004, "payload": {"params": {"soc": 87}}}
+
+                {"topic": "/open/login/SN2/quota", "payload": "{\\"params\\":{}}"}
+                """);
+
+        var messages = reader.read(file);
+
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).topic()).isEqualTo("/open/login/SN1/quota");
+        assertThat(messages.get(0).receivedEpochMillis()).isEqualTo(1729166402004L);
+        assertThat(new String(messages.get(0).payload(), StandardCharsets.UTF_8))
+                .isEqualTo("{\"params\":{\"soc\":87}}");
+        assertThat(new String(messages.get(1).payload(), StandardCharsets.UTF_8)).isEqualTo("{\"params\":{}}");
+    }
+
+    @Test
+    public void rejectsLinesWithoutTopic() throws Exception {
+        var file = dir.resolve("capture.ndjson");
+        Files.writeString(file, "{\"payload\": {}}\n");
+
+        assertThatThrownBy(() -> reader.read(file)).isInstanceOf(IOException.class).hasMessageContaining(":1");
+    }
+}
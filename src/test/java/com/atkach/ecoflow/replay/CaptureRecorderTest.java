@@ -0,0 +1,97 @@
+package com.atkach.ecoflow.replay;
+
+import com.atkach.ecoflow.properties.EcoflowProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaptureRecorderTest {
+    private static final long START = 1729166400000L;
+
+    @TempDir
+    Path dir;
+
+    private final EcoflowProperties properties = new EcoflowProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void readsTimeWindowAcrossSegments() throws Exception {
+        properties.getCapture().setDir(dir.toString());
+        properties.getCapture().setSegmentDuration(Duration.ofSeconds(10));
+        var recorder = new CaptureRecorder(properties, meterRegistry);
+        // one message every 500 ms for 50 seconds
+        for (int i = 0; i < 100; i++) {
+            recorder.record("/open/login/SN" + (i % 3) + "/quota", payload(i), START + i * 500L);
+        }
+        recorder.close();
+
+        assertThat(CaptureLog.segments(dir)).hasSize(5);
+        var messages = CaptureLog.read(dir, Instant.ofEpochMilli(START + 12_000), Instant.ofEpochMilli(START + 31_000));
+
+        assertThat(messages).hasSize(38);
+        assertThat(messages.get(0).receivedEpochMillis()).isEqualTo(START + 12_000);
+        assertThat(messages.get(0).topic()).isEqualTo("/open/login/SN0/quota");
+        assertThat(new String(messages.get(0).payload(), StandardCharsets.UTF_8)).isEqualTo("{\"params\":{\"n\":24}}");
+        assertThat(messages.get(37).receivedEpochMillis()).isEqualTo(START + 30_500);
+        assertThat(CaptureLog.read(dir, null, null)).hasSize(100);
+        assertThat(meterRegistry.counter("ecoflow_capture_messages_total", "result", "written").count())
+                .isEqualTo(100);
+    }
+
+    @Test
+    public void deletesOldestSegmentsBeyondMaxSize() throws Exception {
+        properties.getCapture().setDir(dir.toString());
+        properties.getCapture().setSegmentSize(DataSize.ofBytes(1024));
+        properties.getCapture().setMaxSize(DataSize.ofBytes(4096));
+        var recorder = new CaptureRecorder(properties, meterRegistry);
+        for (int i = 0; i < 200; i++) {
+            recorder.record("/open/login/SN1/quota", payload(i), START + i);
+        }
+        recorder.close();
+
+        long size = 0;
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                size += Files.size(file);
+            }
+        }
+        // plus the segment written since the last rotation
+        assertThat(size).isLessThanOrEqualTo(4096 + 1024 + 1024);
+        var messages = CaptureLog.read(dir, null, null);
+        assertThat(messages.get(messages.size() - 1).receivedEpochMillis()).isEqualTo(START + 199);
+        assertThat(messages.get(0).receivedEpochMillis()).isGreaterThan(START);
+        assertThat(meterRegistry.counter("ecoflow_capture_segments_deleted_total", "reason", "size").count())
+                .isPositive();
+    }
+
+    @Test
+    public void deletesSegmentsPastMaxAge() throws Exception {
+        properties.getCapture().setDir(dir.toString());
+        properties.getCapture().setSegmentDuration(Duration.ofMinutes(1));
+        properties.getCapture().setMaxAge(Duration.ofMinutes(10));
+        var recorder = new CaptureRecorder(properties, meterRegistry);
+        for (int i = 0; i < 30; i++) {
+            recorder.record("/open/login/SN1/quota", payload(i), START + Duration.ofMinutes(i).toMillis());
+        }
+        recorder.close();
+
+        var segments = CaptureLog.segments(dir);
+        assertThat(CaptureLog.startMillis(segments.get(0)))
+                .isGreaterThanOrEqualTo(START + Duration.ofMinutes(29 - 11).toMillis());
+        assertThat(meterRegistry.counter("ecoflow_capture_segments_deleted_total", "reason", "age").count())
+                .isPositive();
+    }
+
+    private static byte[] payload(int n) {
+        return ("{\"params\":{\"n\":" + n + "}}").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package com.atkach.ecoflow.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AttributeStringGeneratorTest {
+
+    static class Params {
+        private static final int IGNORED = 1;
+        private int cmdSet = 11;
+        private long id = 24;
+        private double ratio = 0.5;
+        private Boolean enabled = null;
+        private Object value = 7;
+    }
+
+    static class Root {
+        private String sn = "123";
+        private Params params = new Params();
+        private Params missing = null;
+    }
+
+    static class DollarNamed {
+        private Params a = new Params();
+        private int a$b = 1;
+    }
+
+    @Test
+    public void testAppendsSortedAttributes() {
+        var target = new StringBuilder();
+
+        assertThat(AttributeStringGenerator.appendAttributes(target, new Root())).isTrue();
+        assertThat(target.toString()).isEqualTo("missing=null&params.cmdSet=11&params.enabled=null&params.id=24&"
+                + "params.ratio=0.5&params.value=7&sn=123&");
+    }
+
+    @Test
+    public void testAppendMatchesMapOrder() {
+        var target = new StringBuilder();
+        AttributeStringGenerator.appendAttributes(target, new DollarNamed());
+
+        var expected = new StringBuilder();
+        AttributeStringGenerator.generateAttributesMap(new DollarNamed())
+                .forEach((key, value) -> expected.append(key).append('=').append(value).append('&'));
+        assertThat(target.toString()).isEqualTo(expected.toString()).startsWith("a$b=1&");
+    }
+
+    @Test
+    public void testNullBody() {
+        assertThat(AttributeStringGenerator.appendAttributes(new StringBuilder(), null)).isFalse();
+        assertThat(AttributeStringGenerator.generateAttributesMap(null)).isEmpty();
+    }
+}
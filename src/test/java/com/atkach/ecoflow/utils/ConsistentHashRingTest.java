@@ -0,0 +1,49 @@
+package com.atkach.ecoflow.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsistentHashRingTest {
+    private static final int KEYS = 10_000;
+
+    private static Map<String, String> assign(ConsistentHashRing ring) {
+        var result = new HashMap<String, String>();
+        for (int i = 0; i < KEYS; i++) {
+            var sn = "R331ZEB4ZE" + i;
+            result.put(sn, ring.nodeFor(sn));
+        }
+        return result;
+    }
+
+    @Test
+    public void spreadsKeysEvenly() {
+        var counts = new HashMap<String, Integer>();
+        assign(new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2", "shard-3"), 128))
+                .values().forEach(node -> counts.merge(node, 1, Integer::sum));
+
+        assertThat(counts).hasSize(4);
+        assertThat(counts.values())
+                .allSatisfy(count -> assertThat(count).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10));
+    }
+
+    @Test
+    public void addingNodeOnlyMovesKeysToIt() {
+        var before = assign(new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"), 128));
+        var after = assign(new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2", "shard-3"), 128));
+
+        int moved = 0;
+        for (var entry : before.entrySet()) {
+            var node = after.get(entry.getKey());
+            if (!node.equals(entry.getValue())) {
+                assertThat(node).isEqualTo("shard-3");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10);
+    }
+}
@@ -0,0 +1,91 @@
+package com.atkach.ecoflow.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeadlineWheelTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final DeadlineWheel wheel = new DeadlineWheel(Duration.ofSeconds(1), 8, clock::get);
+    private final List<String> events = new ArrayList<>();
+
+    private DeadlineWheel.Timeout newTimeout(Duration duration) {
+        return wheel.newTimeout(duration, new DeadlineWheel.Listener() {
+            @Override
+            public void onExpired() {
+                events.add("expired@" + clock.get() / SECOND);
+            }
+
+            @Override
+            public void onRevived() {
+                events.add("revived@" + clock.get() / SECOND);
+            }
+        });
+    }
+
+    private void advanceTo(long seconds) {
+        for (long s = clock.get() / SECOND + 1; s <= seconds; s++) {
+            clock.set(s * SECOND);
+            wheel.advance();
+        }
+    }
+
+    @Test
+    public void testExpiresAndRevives() {
+        var timeout = newTimeout(Duration.ofSeconds(3));
+
+        advanceTo(2);
+        assertThat(events).isEmpty();
+        advanceTo(3);
+        assertThat(events).containsExactly("expired@3");
+        assertThat(timeout.isExpired()).isTrue();
+
+        advanceTo(4);
+        timeout.touch();
+        assertThat(events).containsExactly("expired@3", "revived@4");
+
+        advanceTo(6);
+        assertThat(events).hasSize(2);
+        advanceTo(7);
+        assertThat(events).containsExactly("expired@3", "revived@4", "expired@7");
+    }
+
+    @Test
+    public void testTouchPostponesExpiry() {
+        var timeout = newTimeout(Duration.ofSeconds(3));
+
+        for (int s = 1; s <= 10; s++) {
+            advanceTo(s);
+            timeout.touch();
+        }
+        assertThat(events).isEmpty();
+
+        advanceTo(13);
+        assertThat(events).containsExactly("expired@13");
+    }
+
+    @Test
+    public void testTimeoutLongerThanWheel() {
+        newTimeout(Duration.ofSeconds(20));
+
+        advanceTo(19);
+        assertThat(events).isEmpty();
+        advanceTo(20);
+        assertThat(events).containsExactly("expired@20");
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotFire() {
+        newTimeout(Duration.ofSeconds(2)).cancel();
+
+        advanceTo(5);
+        assertThat(events).isEmpty();
+    }
+}
@@ -7,6 +7,7 @@ import lombok.NoArgsConstructor;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
@@ -55,4 +56,20 @@ public class SignatureUtilTest {
 
         assertThat(Objects.requireNonNull(headers.get("sign")).get(0)).isEqualTo("07c13b65e037faf3b153d51613638fa80003c4c38d2407379a7f52851af1473e");
     }
+
+    @Test
+    public void testSignatureIsStableAcrossCalls() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            var headers = SignatureUtil.generateSignature(null, "Fp4SvIprYSDPXtYJidEtUAd1o",
+                    "WIbFEKre0s6sLnh4ei7SPUeYnptHG6V", "1671171709428", "345164", Map.of(), null);
+
+            assertThat(headers.getFirst("sign")).isEqualTo(
+                    "4409ae9efeaf0be9b8b48f02ebef8e804387e745e513588c136955606ca496f5");
+        }
+    }
+
+    @Test
+    public void testHex() {
+        assertThat(SignatureUtil.toHexString(new byte[]{0, 15, 16, (byte) 0xab, (byte) 0xff})).isEqualTo("000f10abff");
+    }
 }